@@ -0,0 +1,73 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds the collaborators of the send paths outside of Spring.
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Governors that never throttle, so the benchmarks measure the send path and not the configured rate limits.
+     */
+    public static TransportGovernors unlimitedGovernors() {
+        Map<String, Object> properties = new HashMap<>();
+        for (String provider : List.of("apns", "fcm", "azure")) {
+            properties.put("governor." + provider + ".rate", 1e9);
+            properties.put("governor." + provider + ".burst", 1e9);
+            properties.put("governor." + provider + ".max-concurrency", 1_000_000);
+        }
+        var environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        return new TransportGovernors(environment);
+    }
+
+    public static SendMetrics metrics() {
+        return new SendMetrics(new SimpleMeterRegistry());
+    }
+
+    public static DeviceRegistry registry(Path directory) throws IOException {
+        return DeviceRegistry.open(Files.createTempDirectory(directory, "registry").resolve("devices.log"));
+    }
+
+    public static DeliveryFeedback feedback(DeviceRegistry registry) {
+        return new DeliveryFeedback(registry, 1000, 0);
+    }
+
+    /**
+     * Registers {@code count} random tokens, APNs tokens are 32 bytes in hex.
+     */
+    public static List<String> registerTokens(DeviceRegistry registry, DevicePlatform platform, int count) {
+        List<String> tokens = new ArrayList<>(count);
+        var random = ThreadLocalRandom.current();
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(bytes);
+            var token = HexFormat.of().formatHex(bytes);
+            registry.register(platform, token, Set.of("pokemon"));
+            tokens.add(token);
+        }
+        return tokens;
+    }
+}
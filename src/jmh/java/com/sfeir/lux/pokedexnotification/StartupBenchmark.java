@@ -0,0 +1,139 @@
+package com.sfeir.lux.pokedexnotification;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching the application to its first successful send, a Firebase topic send in the loadtest profile
+ * whose stand-ins answer every send, the APNs endpoints answer 200 even when their send failed. Each operation starts
+ * a new JVM from the image built by {@code ./gradlew startupImage -Pstartup}, in an empty working directory so no
+ * registry or queue is replayed, and polls the send endpoint until it answers 200.
+ * <p>
+ * Run with {@code ./gradlew jmh -Pstartup}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    static final int PORT = 18090;
+    static final String SEND_PATH = "/notify/startup";
+    static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+    public enum Startup {
+        JIT(false, false),
+        CDS(false, true),
+        AOT(true, false),
+        AOT_CDS(true, true);
+
+        private final boolean aot;
+        private final boolean cds;
+
+        Startup(boolean aot, boolean cds) {
+            this.aot = aot;
+            this.cds = cds;
+        }
+    }
+
+    @Param({"JIT", "CDS", "AOT", "AOT_CDS"})
+    public Startup startup;
+
+    private Path image;
+    private HttpClient http;
+    private Path workingDirectory;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var property = System.getProperty("startup.image");
+        if (property == null) {
+            throw new IllegalStateException("startup.image is not set, run with ./gradlew jmh -Pstartup");
+        }
+        image = Path.of(property);
+        http = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(100)).build();
+    }
+
+    @Setup(Level.Invocation)
+    public void createWorkingDirectory() throws IOException {
+        workingDirectory = Files.createTempDirectory("startup");
+    }
+
+    @Benchmark
+    public int firstSend() throws IOException, InterruptedException {
+        process = new ProcessBuilder(command())
+                .directory(workingDirectory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workingDirectory.resolve("application.log").toFile())
+                .start();
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + SEND_PATH)).timeout(Duration.ofSeconds(10)).build();
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue() + ":\n" + Files.readString(workingDirectory.resolve("application.log")));
+            }
+            try {
+                var response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    return response.statusCode();
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("No successful send within " + TIMEOUT.toSeconds() + " s");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws IOException, InterruptedException {
+        if (process != null) {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+        FileSystemUtils.deleteRecursively(workingDirectory);
+    }
+
+    // the JVM running the benchmark, the one the class data sharing archives were recorded with
+    private List<String> command() {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        if (startup.cds) {
+            command.add("-XX:SharedArchiveFile=" + image.resolve(startup.aot ? "application-aot.jsa" : "application.jsa"));
+        }
+        command.add("-Dspring.aot.enabled=" + startup.aot);
+        command.addAll(List.of("-jar", image.resolve("application.jar").toString(),
+                "--spring.profiles.active=loadtest", "--server.port=" + PORT, "--loadtest.devices=0"));
+        return command;
+    }
+}
@@ -0,0 +1,134 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
+import com.eatthepath.pushy.apns.server.AcceptAllPushNotificationHandlerFactory;
+import com.eatthepath.pushy.apns.server.MockApnsServer;
+import com.eatthepath.pushy.apns.server.MockApnsServerBuilder;
+import com.sfeir.lux.pokedexnotification.BenchmarkSupport;
+import com.sfeir.lux.pokedexnotification.config.WebClientConfig;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.payload.PayloadPlatform;
+import com.sfeir.lux.pokedexnotification.payload.RenderedPayload;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.interfaces.ECPrivateKey;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end APNs fan-out to {@value #DEVICES} devices, against Pushy's {@link MockApnsServer} for the Pushy transport
+ * and a local HTTP/2 stub for the WebClient transport. A benchmark operation is one notification, so the score is in
+ * notifications per second and the {@code gc} profiler gives the allocations per send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ApnsFanOutBenchmark {
+
+    static final int DEVICES = 10_000;
+
+    @Param({"PUSHY", "WEBCLIENT"})
+    public ApnsFanOutService.Transport transport;
+
+    @Param({"500"})
+    public int concurrency;
+
+    private Path directory;
+    private DeviceRegistry registry;
+    private ApnsProviderTokenManager tokenManager;
+    private MockApnsServer mockApnsServer;
+    private ApnsClient apnsClient;
+    private DisposableServer webClientStub;
+    private ConnectionProvider connectionProvider;
+    private ApnsFanOutService fanOutService;
+    private List<String> devices;
+    private RenderedPayload payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("apns-fan-out");
+        registry = BenchmarkSupport.registry(directory);
+        devices = BenchmarkSupport.registerTokens(registry, DevicePlatform.APNS, DEVICES);
+        payload = new NotificationPayloads().render(PayloadPlatform.APNS, "25");
+
+        var signingKey = ProviderTokenBenchmark.generateSigningKey();
+        tokenManager = new ApnsProviderTokenManager(ProviderTokenBenchmark.TEAM_ID, ProviderTokenBenchmark.KEY_ID, 40, 50, keyId -> signingKey);
+
+        var certificate = new SelfSignedCertificate("localhost");
+        mockApnsServer = new MockApnsServerBuilder()
+                .setServerCredentials(certificate.certificate(), certificate.privateKey(), null)
+                .setHandlerFactory(new AcceptAllPushNotificationHandlerFactory())
+                .build();
+        int apnsPort = mockApnsServer.start(0).get();
+        apnsClient = new ApnsClientBuilder()
+                .setApnsServer("localhost", apnsPort)
+                .setTrustedServerCertificateChain(certificate.certificate())
+                .setSigningKey(new ApnsSigningKey(ProviderTokenBenchmark.KEY_ID, ProviderTokenBenchmark.TEAM_ID, (ECPrivateKey) signingKey))
+                .setConcurrentConnections(4)
+                .build();
+
+        // cleartext HTTP/2 keeps TLS out of the WebClient numbers, the Pushy client still pays for it
+        var uniqueId = UUID.randomUUID().toString();
+        webClientStub = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .protocol(HttpProtocol.H2C)
+                .route(routes -> routes.post("/3/device/{token}", (request, response) -> request.receive().then()
+                        .then(response.status(HttpResponseStatus.OK).header("apns-unique-id", uniqueId).send().then())))
+                .bindNow();
+        // the production pool and client, with the defaults of application.yaml, only switched to cleartext
+        var webClientConfig = new WebClientConfig();
+        connectionProvider = webClientConfig.webClientConnectionProvider(4, 500, 300_000, 3_600_000, 5_000, 10_000);
+        var webClient = webClientConfig.webClient(connectionProvider, 5_000, 10_000, false, true);
+        var webClientSender = new ApnsWebClientSender(webClient, tokenManager, "com.sfeir.lux.pokedex", false, "http://localhost:" + webClientStub.port());
+
+        fanOutService = new ApnsFanOutService(() -> apnsClient, webClientSender, BenchmarkSupport.feedback(registry),
+                BenchmarkSupport.unlimitedGovernors(), BenchmarkSupport.metrics(), "com.sfeir.lux.pokedex", concurrency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        apnsClient.close().get();
+        mockApnsServer.shutdown().get();
+        webClientStub.disposeNow();
+        connectionProvider.dispose();
+        tokenManager.destroy();
+        registry.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DEVICES)
+    public ApnsFanOutReport fanOut() {
+        return fanOutService.fanOut(Flux.fromIterable(devices), payload, transport).block();
+    }
+}
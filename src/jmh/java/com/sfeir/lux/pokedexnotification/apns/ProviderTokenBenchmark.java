@@ -0,0 +1,70 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the provider token: {@code sign} is the ES256 signature paid on a cache miss, {@code cachedToken} what
+ * every request pays, with contending threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderTokenBenchmark {
+
+    static final String TEAM_ID = "BENCHTEAM1";
+    static final String KEY_ID = "BENCHKEY01";
+
+    private ApnsProviderTokenManager tokenManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        var key = generateSigningKey();
+        tokenManager = new ApnsProviderTokenManager(TEAM_ID, KEY_ID, 40, 50, keyId -> key);
+        tokenManager.getToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tokenManager.destroy();
+    }
+
+    @Benchmark
+    public String sign() {
+        return tokenManager.sign(TEAM_ID, KEY_ID, LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String cachedToken() {
+        return tokenManager.getToken();
+    }
+
+    static PrivateKey generateSigningKey() throws GeneralSecurityException {
+        var generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair().getPrivate();
+    }
+}
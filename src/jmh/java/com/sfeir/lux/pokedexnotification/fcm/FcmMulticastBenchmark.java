@@ -0,0 +1,108 @@
+package com.sfeir.lux.pokedexnotification.fcm;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.MulticastMessage;
+import com.sfeir.lux.pokedexnotification.BenchmarkSupport;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multicast of one notification to {@value #TOKENS} tokens through the Firebase Admin SDK, with the FCM endpoint
+ * replaced by an in-process HTTP transport answering every message with a success.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FcmMulticastBenchmark {
+
+    static final int TOKENS = 5_000;
+
+    private DeviceRegistry registry;
+    private FirebaseApp firebaseApp;
+    private FcmMulticastService multicastService;
+    private List<String> tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        registry = BenchmarkSupport.registry(Files.createTempDirectory("fcm-multicast"));
+        tokens = BenchmarkSupport.registerTokens(registry, DevicePlatform.FCM, TOKENS);
+
+        var credentials = GoogleCredentials.create(new AccessToken("benchmark", Date.from(Instant.now().plus(Duration.ofDays(1)))));
+        firebaseApp = FirebaseApp.initializeApp(FirebaseOptions.builder()
+                .setCredentials(credentials)
+                .setProjectId("benchmark")
+                .setHttpTransport(new FakeFcmTransport())
+                .build());
+        var messaging = FirebaseMessaging.getInstance(firebaseApp);
+        multicastService = new FcmMulticastService(() -> messaging, BenchmarkSupport.feedback(registry), BenchmarkSupport.unlimitedGovernors(), BenchmarkSupport.metrics(),
+                FcmMulticastService.MAX_TOKENS_PER_MULTICAST, 8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        firebaseApp.delete();
+        registry.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public FcmMulticastReport multicast() {
+        return multicastService.send(tokens, chunk -> MulticastMessage.builder()
+                        .putData("pokemon", "25")
+                        .addAllTokens(chunk)
+                        .build())
+                .block();
+    }
+
+    /**
+     * Answers every FCM v1 send with a new message name, each request gets its own response since a response body
+     * can only be read once.
+     */
+    private static final class FakeFcmTransport extends MockHttpTransport {
+
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url) {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() {
+                    return new MockLowLevelHttpResponse()
+                            .setContentType("application/json; charset=UTF-8")
+                            .setContent("{\"name\":\"projects/benchmark/messages/1\"}");
+                }
+            };
+        }
+    }
+}
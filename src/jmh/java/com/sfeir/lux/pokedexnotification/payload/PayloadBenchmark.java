@@ -0,0 +1,49 @@
+package com.sfeir.lux.pokedexnotification.payload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the notification bodies. {@code rendered} is the steady state of a broadcast, served from the cache,
+ * {@code renderedUnknownPokemon} builds the body with Gson, or with {@code SimpleApnsPayloadBuilder} for Pushy, on
+ * every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({"AZURE_FCM", "AZURE_APNS", "APNS", "PUSHY"})
+    public PayloadPlatform platform;
+
+    private final NotificationPayloads payloads = new NotificationPayloads();
+
+    @Benchmark
+    public RenderedPayload rendered() {
+        return payloads.render(platform, NotificationPayloads.randomPokemon());
+    }
+
+    @Benchmark
+    public RenderedPayload renderedUnknownPokemon() {
+        return payloads.render(platform, "missingno");
+    }
+
+    @Benchmark
+    public Map<String, String> templateProperties() {
+        return payloads.templateProperties(NotificationPayloads.randomPokemon());
+    }
+}
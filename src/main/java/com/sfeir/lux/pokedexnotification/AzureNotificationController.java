@@ -1,175 +1,216 @@
 package com.sfeir.lux.pokedexnotification;
 
-import com.google.gson.JsonObject;
+import com.sfeir.lux.pokedexnotification.azure.AzureHubGateway;
+import com.sfeir.lux.pokedexnotification.azure.AzureRegistrationReader;
+import com.sfeir.lux.pokedexnotification.azure.RegistrationJobService;
+import com.sfeir.lux.pokedexnotification.azure.RegistrationJobStatus;
+import com.sfeir.lux.pokedexnotification.azure.RegistrationJobType;
+import com.sfeir.lux.pokedexnotification.azure.RegistrationPlatform;
+import com.sfeir.lux.pokedexnotification.azure.RegistrationTemplateConverter;
+import com.sfeir.lux.pokedexnotification.dedup.IdempotencyStore;
+import com.sfeir.lux.pokedexnotification.interest.InterestIndex;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.payload.PayloadPlatform;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import com.sfeir.lux.pokedexnotification.stream.SendEvent;
+import com.sfeir.lux.pokedexnotification.stream.SendEvents;
+import com.sfeir.lux.pokedexnotification.stream.TargetResult;
 import com.windowsazure.messaging.*;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/azure")
 public class AzureNotificationController {
 
-    private final List<String> azureFcmTokens;
+    // batch direct sends accept at most 1000 device handles
+    private static final int MAX_DIRECT_BATCH = 1000;
+    private static final int DIRECT_BATCH_CONCURRENCY = 8;
+
+    private final AzureHubGateway hubGateway;
+    private final AzureRegistrationReader registrationReader;
+    private final RegistrationTemplateConverter templateConverter;
+    private final RegistrationJobService registrationJobService;
+    private final NotificationPayloads payloads;
+    private final DeviceRegistry deviceRegistry;
+    private final IdempotencyStore idempotencyStore;
+    private final InterestIndex interestIndex;
+
+    public AzureNotificationController(AzureHubGateway hubGateway, AzureRegistrationReader registrationReader, RegistrationTemplateConverter templateConverter, RegistrationJobService registrationJobService, NotificationPayloads payloads, DeviceRegistry deviceRegistry, IdempotencyStore idempotencyStore, InterestIndex interestIndex) {
+        this.hubGateway = hubGateway;
+        this.registrationReader = registrationReader;
+        this.templateConverter = templateConverter;
+        this.registrationJobService = registrationJobService;
+        this.payloads = payloads;
+        this.deviceRegistry = deviceRegistry;
+        this.idempotencyStore = idempotencyStore;
+        this.interestIndex = interestIndex;
+    }
 
-    @Value("${azure.apns.template}")
-    private String azureApnsTemplate;
+    @GetMapping("/registrations")
+    public Mono<ResponseEntity<List<Registration>>> getRegistrations() {
+        return hubGateway.call(hub -> hub.getRegistrations().getRegistrations())
+                .map(ResponseEntity::ok);
+    }
 
-    @Value("${azure.fcm.template}")
-    private String azureFcmTemplate;
+    @GetMapping(value = "/registrations/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Registration> streamRegistrations(@RequestParam(required = false) String tag,
+                                                  @RequestParam(required = false) RegistrationPlatform platform,
+                                                  @RequestParam(defaultValue = "100") int pageSize) {
+        return registrationReader.readAll(tag, platform, pageSize);
+    }
 
-    private final NotificationHubClient hub;
 
-    public AzureNotificationController(@Value("${azure.connection-string}") String connectionString, @Value("${azure.hub-path}") String hubPath, @Qualifier("azureFcmTokens") List<String> azureFcmTokens) {
-        this.hub = new NotificationHub(connectionString, hubPath);
-        this.azureFcmTokens = azureFcmTokens;
+    @GetMapping("/registrations/update")
+    public ResponseEntity<RegistrationJobStatus> updateRegistrations(@RequestParam String topic) {
+        return ResponseEntity.accepted().body(registrationJobService.start(RegistrationJobType.RETAG, Set.of(topic, "pokemon")));
     }
 
-    @GetMapping("/registrations")
-    public ResponseEntity<List<Registration>> getRegistrations() throws NotificationHubsException {
-        var res = this.hub.getRegistrations().getRegistrations();
-        return ResponseEntity.ok(res);
+    @GetMapping("/registrations/template")
+    public Mono<ResponseEntity<Registration>> updateRegistrationsToTemplate(@RequestParam String id) {
+        return hubGateway.call(hub -> {
+            var template = templateConverter.toTemplate(hub.getRegistration(id));
+            if (template.isPresent()) {
+                hub.upsertRegistration(template.get());
+            }
+            return hub.getRegistration(id);
+        }).map(ResponseEntity::ok);
     }
 
+    @PostMapping("/registrations/jobs/template")
+    public ResponseEntity<RegistrationJobStatus> startTemplateMigration() {
+        return ResponseEntity.accepted().body(registrationJobService.start(RegistrationJobType.MIGRATE_TO_TEMPLATE, Set.of()));
+    }
 
-    @GetMapping("/registrations/update")
-    public ResponseEntity<List<Registration>> updateRegistrations(@RequestParam String topic) throws NotificationHubsException {
-        var res = this.hub.getRegistrations().getRegistrations();
-        res.forEach(reg -> {
-            try {
-                reg.setTags(Set.of(topic, "pokemon"));
-                hub.updateRegistration(reg);
-            } catch (NotificationHubsException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        return ResponseEntity.ok(this.hub.getRegistrations().getRegistrations());
+    @GetMapping("/registrations/jobs")
+    public ResponseEntity<Collection<RegistrationJobStatus>> getRegistrationJobs() {
+        return ResponseEntity.ok(registrationJobService.list());
     }
 
-    @GetMapping("/registrations/template")
-    public ResponseEntity<Registration> updateRegistrationsToTemplate(@RequestParam String id) throws NotificationHubsException {
-        var res = this.hub.getRegistration(id);
-        // @ registration, a tag starting with a $ is add, but we can't update a tag starting with a $
-        var tags = res.getTags().stream().filter(s-> !s.startsWith("$")).collect(Collectors.toSet());
-        switch (res) {
-            case AppleRegistration appleRegistration:
-                var appleTemplateRegistration = new AppleTemplateRegistration(
-                        id,
-                        appleRegistration.getDeviceToken(),
-                        azureApnsTemplate
-                );
-                appleTemplateRegistration.setTags(tags);
-                hub.upsertRegistration(appleTemplateRegistration);
-                break;
-            case FcmV1Registration fcmV1Registration:
-                var fcmV1TemplateRegistration = new FcmV1TemplateRegistration(
-                        id,
-                        fcmV1Registration.getFcmRegistrationId(),
-                        azureFcmTemplate
-                );
-                fcmV1TemplateRegistration.setTags(tags);
-                hub.upsertRegistration(fcmV1TemplateRegistration);
-                break;
-            default:
-                break;
-        }
-        return ResponseEntity.ok(this.hub.getRegistration(id));
+    @GetMapping("/registrations/jobs/{id}")
+    public ResponseEntity<RegistrationJobStatus> getRegistrationJob(@PathVariable String id) {
+        return ResponseEntity.of(registrationJobService.get(id));
+    }
+
+    @DeleteMapping("/registrations/jobs/{id}")
+    public ResponseEntity<RegistrationJobStatus> cancelRegistrationJob(@PathVariable String id) {
+        return ResponseEntity.of(registrationJobService.cancel(id));
     }
 
     @GetMapping("/notify")
-    public ResponseEntity<String> sendNotification(@RequestParam(required = false) String pokemon) throws NotificationHubsException {
-        JsonObject send = getFCMSend(pokemon);
-        Notification n = Notification.createFcmV1Notification(send.toString());
-        NotificationOutcome outcome = hub.sendDirectNotification(n, azureFcmTokens);
-        return ResponseEntity.ok(outcome.getTrackingId());
+    public Mono<ResponseEntity<List<String>>> sendNotification(@RequestParam(required = false) String pokemon) {
+        Notification n = Notification.createFcmV1Notification(payloads.render(PayloadPlatform.AZURE_FCM, pokemon).json());
+        return sendDirect(n, deviceRegistry.tokens(DevicePlatform.AZURE, null))
+                .collectList()
+                .map(ResponseEntity::ok);
     }
 
     @GetMapping("/apple/notify")
-    public ResponseEntity<String> sendNotificationToApple(@RequestParam(required = false) String pokemon) throws NotificationHubsException {
-        JsonObject send = getApsSend(pokemon);
-        Notification n = Notification.createAppleNotification(send.toString());
-        NotificationOutcome outcome = hub.sendNotification(n, Set.of("pokemon"));
-        return ResponseEntity.ok(outcome.getTrackingId());
+    public Mono<ResponseEntity<String>> sendNotificationToApple(@RequestParam(required = false) String pokemon) {
+        Notification n = Notification.createAppleNotification(payloads.render(PayloadPlatform.AZURE_APNS, pokemon).json());
+        return hubGateway.send("send-notification", hub -> hub.sendNotification(n, Set.of("pokemon")).getTrackingId())
+                .map(ResponseEntity::ok);
     }
 
     @GetMapping("/notify/{topic}")
-    public ResponseEntity<String> sendNotificationToTopic(@PathVariable String topic) throws NotificationHubsException {
-        JsonObject send = getFCMSend(null);
-        Notification n = Notification.createFcmV1Notification(send.toString());
-        NotificationOutcome outcome = hub.sendNotification(n, Set.of(topic));
-        return ResponseEntity.ok(outcome.getTrackingId());
+    public Mono<ResponseEntity<String>> sendNotificationToTopic(@PathVariable String topic) {
+        Notification n = Notification.createFcmV1Notification(payloads.render(PayloadPlatform.AZURE_FCM, null).json());
+        return hubGateway.send("send-notification", hub -> hub.sendNotification(n, Set.of(topic)).getTrackingId())
+                .map(ResponseEntity::ok);
     }
 
 
     @GetMapping("/registrations/delete/{id}")
-    public ResponseEntity<String> deleteRegistration(@PathVariable String id) throws NotificationHubsException {
-        hub.deleteRegistration(id);
-        return ResponseEntity.ok().build();
+    public Mono<ResponseEntity<String>> deleteRegistration(@PathVariable String id) {
+        return hubGateway.call(hub -> {
+            hub.deleteRegistration(id);
+            return id;
+        }).map(deleted -> ResponseEntity.ok().<String>build());
     }
 
     @GetMapping("/notify/wild-pokemon")
-    public ResponseEntity<List<String>> sendWildPokemonNotification(@RequestParam(required = false) String pokemon) throws NotificationHubsException {
-        JsonObject fcmSend = getFCMSend(pokemon);
-        JsonObject apsSend = getApsSend(pokemon);
-        List<String> result = new ArrayList<>(List.of());
-        result.add(hub.sendNotification(Notification.createFcmV1Notification(fcmSend.toString()), Set.of("pokemon")).getTrackingId());
-        result.add(hub.sendNotification(Notification.createAppleNotification(apsSend.toString()), Set.of("pokemon")).getTrackingId());
-        return ResponseEntity.ok(result);
+    public Mono<ResponseEntity<List<String>>> sendWildPokemonNotification(@RequestParam(required = false) String pokemon,
+                                                                          @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+        return idempotencyStore.execute(IdempotencyStore.key("azure/notify/wild-pokemon", idempotencyKey, pokemon), () -> {
+                    // both platforms announce the same Pokemon
+                    var wildPokemon = NotificationPayloads.pokemonOrRandom(pokemon);
+                    var fcmSend = Notification.createFcmV1Notification(payloads.render(PayloadPlatform.AZURE_FCM, wildPokemon).json());
+                    var apsSend = payloads.render(PayloadPlatform.AZURE_APNS, wildPokemon).json();
+                    // the FCM tokens of the registry are sent directly, only to the devices interested in this Pokemon
+                    Flux<String> fcm;
+                    if (hasRegisteredDevices()) {
+                        List<String> tokens;
+                        try (var audience = interestIndex.tokens(DevicePlatform.AZURE, interestIndex.audience(DevicePlatform.AZURE, wildPokemon))) {
+                            tokens = audience.toList();
+                        }
+                        fcm = sendDirect(fcmSend, tokens);
+                    } else {
+                        fcm = hubGateway.send("send-notification", hub -> hub.sendNotification(fcmSend, Set.of("pokemon")).getTrackingId()).flux();
+                    }
+                    // the hub Apple registrations are not in the registry, they are still reached through their tag
+                    var apns = hubGateway.send("send-notification", hub -> hub.sendNotification(Notification.createAppleNotification(apsSend), Set.of("pokemon")).getTrackingId());
+                    // FCM and APNs sends are independent, issue them concurrently
+                    return Flux.mergeSequential(fcm, apns).collectList();
+                })
+                .map(ResponseEntity::ok);
     }
 
-    @GetMapping("/notify/wild-pokemon/template")
-    public ResponseEntity<String> sendWildPokemonTemplateNotification(@RequestParam(required = false) String pokemon) throws NotificationHubsException {
-        var n = Notification.createTemplateNotification(getTemplateProperties(pokemon));
-        var r = hub.sendNotification(n, Set.of("pokemon")).getTrackingId();
-        return ResponseEntity.ok(r);
-    }
-
-    private static Map<String, String> getTemplateProperties(String pokemon) {
-        return Map.of(
-                "title", "A wild Pokemon Appear !",
-                "body", "Click to see who it is",
-                "badge", "1",
-                "pokemon", pokemon != null ? pokemon : String.valueOf(new Random().nextInt(1025) + 1)
-        );
-    }
-
-
-    private static JsonObject getFCMSend(String pokemon) {
-        JsonObject notification = new JsonObject();
-        JsonObject message = new JsonObject();
-        JsonObject data = new JsonObject();
-        JsonObject send = new JsonObject();
-        if (pokemon != null)
-            data.addProperty("pokemon", pokemon);
-        else
-            data.addProperty("pokemon", String.valueOf(new Random().nextInt(1025) + 1));
-        notification.addProperty("title", "A wild Pokemon Appear !");
-        notification.addProperty("body", "Click to see who it is");
-        message.add("notification", notification);
-        message.add("data", data);
-        send.add("message", message);
-        return send;
-    }
-
-    private static JsonObject getApsSend(String pokemon) {
-        JsonObject alert = new JsonObject();
-        JsonObject aps = new JsonObject();
-        JsonObject send = new JsonObject();
-        if (pokemon != null)
-            send.addProperty("pokemon", pokemon);
-        else
-            send.addProperty("pokemon", String.valueOf(new Random().nextInt(1025) + 1));
-        alert.addProperty("title", "A wild Pokemon Appear !");
-        alert.addProperty("body", "Click to see who it is");
-        aps.addProperty("badge", String.valueOf(1));
-        aps.add("alert", alert);
-        send.add("aps", aps);
-        return send;
+    /**
+     * Streaming mode of {@link #sendWildPokemonNotification}: the outcome of each hub call as soon as it completes, then
+     * a summary. Not deduplicated, a replay would have to keep every result.
+     */
+    @GetMapping(value = "/notify/wild-pokemon/stream", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<SendEvent> streamWildPokemonNotification(@RequestParam(required = false) String pokemon) {
+        return SendEvents.withSummary(Flux.defer(() -> {
+            var wildPokemon = NotificationPayloads.pokemonOrRandom(pokemon);
+            var fcmSend = Notification.createFcmV1Notification(payloads.render(PayloadPlatform.AZURE_FCM, wildPokemon).json());
+            var apsSend = Notification.createAppleNotification(payloads.render(PayloadPlatform.AZURE_APNS, wildPokemon).json());
+            var fcm = hasRegisteredDevices()
+                    ? Flux.fromStream(() -> interestIndex.tokens(DevicePlatform.AZURE, interestIndex.audience(DevicePlatform.AZURE, wildPokemon)))
+                    .buffer(MAX_DIRECT_BATCH)
+                    .flatMap(chunk -> hubGateway.send("send-direct-notification", hub -> hub.sendDirectNotification(fcmSend, chunk).getTrackingId())
+                            .map(trackingId -> TargetResult.sent(chunk.get(0), chunk.size(), trackingId))
+                            .onErrorResume(e -> Mono.just(TargetResult.failed(chunk.get(0), chunk.size(), SendMetrics.Outcome.error(e).reason()))), DIRECT_BATCH_CONCURRENCY)
+                    : hubGateway.send("send-notification", hub -> hub.sendNotification(fcmSend, Set.of("pokemon")).getTrackingId())
+                    .map(trackingId -> TargetResult.sent("pokemon", 0, trackingId))
+                    .onErrorResume(e -> Mono.just(TargetResult.failed("pokemon", 0, SendMetrics.Outcome.error(e).reason())))
+                    .flux();
+            var apns = hubGateway.send("send-notification", hub -> hub.sendNotification(apsSend, Set.of("pokemon")).getTrackingId())
+                    .map(trackingId -> TargetResult.sent("pokemon", 0, trackingId))
+                    .onErrorResume(e -> Mono.just(TargetResult.failed("pokemon", 0, SendMetrics.Outcome.error(e).reason())));
+            return Flux.merge(fcm, apns);
+        }));
     }
 
+    /**
+     * The hub FCM registrations are not in the registry, devices only get there through {@code PUT /devices/AZURE/...}:
+     * until one does, the FCM leg keeps going to the hub {@code pokemon} tag rather than to nobody.
+     */
+    private boolean hasRegisteredDevices() {
+        return deviceRegistry.count(DevicePlatform.AZURE) > 0;
+    }
+
+    /**
+     * One batch direct send per {@value #MAX_DIRECT_BATCH} tokens, the tracking ids in the order of the batches.
+     */
+    private Flux<String> sendDirect(Notification notification, List<String> tokens) {
+        return Flux.range(0, (tokens.size() + MAX_DIRECT_BATCH - 1) / MAX_DIRECT_BATCH)
+                .map(i -> tokens.subList(i * MAX_DIRECT_BATCH, Math.min((i + 1) * MAX_DIRECT_BATCH, tokens.size())))
+                .flatMapSequential(chunk -> hubGateway.send("send-direct-notification", hub -> hub.sendDirectNotification(notification, chunk).getTrackingId()),
+                        DIRECT_BATCH_CONCURRENCY);
+    }
 
+    @GetMapping("/notify/wild-pokemon/template")
+    public Mono<ResponseEntity<String>> sendWildPokemonTemplateNotification(@RequestParam(required = false) String pokemon) {
+        var n = Notification.createTemplateNotification(payloads.templateProperties(pokemon));
+        return hubGateway.send("send-notification", hub -> hub.sendNotification(n, Set.of("pokemon")).getTrackingId())
+                .map(ResponseEntity::ok);
+    }
 }
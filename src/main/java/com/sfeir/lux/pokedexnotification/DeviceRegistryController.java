@@ -0,0 +1,72 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+@RestController
+@RequestMapping("/devices")
+public class DeviceRegistryController {
+
+    private final DeviceRegistry deviceRegistry;
+    private final DeliveryFeedback deliveryFeedback;
+
+    public DeviceRegistryController(DeviceRegistry deviceRegistry, DeliveryFeedback deliveryFeedback) {
+        this.deviceRegistry = deviceRegistry;
+        this.deliveryFeedback = deliveryFeedback;
+    }
+
+    @PutMapping("/{platform}/{token}")
+    public ResponseEntity<Set<String>> register(@PathVariable DevicePlatform platform, @PathVariable String token, @RequestBody(required = false) Set<String> topics) {
+        try {
+            deviceRegistry.register(platform, token, topics != null ? topics : Set.of("pokemon"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(deviceRegistry.topics(platform, token));
+    }
+
+    @DeleteMapping("/{platform}/{token}")
+    public ResponseEntity<Void> unregister(@PathVariable DevicePlatform platform, @PathVariable String token) {
+        return deviceRegistry.unregister(platform, token) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @GetMapping("/{platform}/{token}")
+    public ResponseEntity<Set<String>> get(@PathVariable DevicePlatform platform, @PathVariable String token) {
+        var topics = deviceRegistry.topics(platform, token);
+        return topics != null ? ResponseEntity.ok(topics) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * One {@code {"token": ...}} object per line, a bare string would not be a JSON document.
+     */
+    @GetMapping(value = "/{platform}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<RegisteredDevice> list(@PathVariable DevicePlatform platform, @RequestParam(required = false) String topic) {
+        return Flux.fromStream(() -> deviceRegistry.stream(platform, topic)).map(RegisteredDevice::new);
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<DevicePlatform, Integer>> stats() {
+        Map<DevicePlatform, Integer> counts = new EnumMap<>(DevicePlatform.class);
+        for (DevicePlatform platform : DevicePlatform.values()) {
+            counts.put(platform, deviceRegistry.count(platform));
+        }
+        return ResponseEntity.ok(counts);
+    }
+
+    @GetMapping("/pruned")
+    public ResponseEntity<DeliveryFeedback.FeedbackStats> pruned() {
+        return ResponseEntity.ok(deliveryFeedback.stats());
+    }
+
+    public record RegisteredDevice(String token) {
+    }
+}
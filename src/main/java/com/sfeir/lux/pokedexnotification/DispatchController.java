@@ -0,0 +1,31 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.dispatch.DispatchReport;
+import com.sfeir.lux.pokedexnotification.dispatch.NotificationDispatcher;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/dispatch")
+public class DispatchController {
+
+    private final NotificationDispatcher dispatcher;
+
+    public DispatchController(NotificationDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @PostMapping("/wild-pokemon")
+    public Mono<ResponseEntity<DispatchReport>> dispatchWildPokemon(@RequestParam(required = false) String pokemon,
+                                                                    @RequestParam(defaultValue = "pokemon") String topic,
+                                                                    @RequestParam(required = false) List<DevicePlatform> platforms) {
+        return dispatcher.dispatch(pokemon, topic, platforms).map(ResponseEntity::ok);
+    }
+}
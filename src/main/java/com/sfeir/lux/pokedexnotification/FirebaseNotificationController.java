@@ -1,44 +1,69 @@
 package com.sfeir.lux.pokedexnotification;
 
-import com.google.auth.oauth2.GoogleCredentials;
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.FirebaseOptions;
 import com.google.firebase.messaging.*;
-import org.springframework.beans.factory.annotation.Qualifier;
+import com.sfeir.lux.pokedexnotification.dedup.Coalescer;
+import com.sfeir.lux.pokedexnotification.dedup.IdempotencyStore;
+import com.sfeir.lux.pokedexnotification.fcm.FcmMessages;
+import com.sfeir.lux.pokedexnotification.fcm.FcmMulticastReport;
+import com.sfeir.lux.pokedexnotification.fcm.FcmMulticastService;
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.interest.InterestIndex;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import com.sfeir.lux.pokedexnotification.stream.SendEvent;
+import com.sfeir.lux.pokedexnotification.stream.SendEvents;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.ResourceUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
-import java.util.Random;
 
 @RestController
 public class FirebaseNotificationController {
 
-    private final List<String> fcmTokens;
-
-
-    public FirebaseNotificationController(@Qualifier("fcmTokens") List<String> fcmTokens) throws IOException {
-        File file = ResourceUtils.getFile("classpath:firebase-adminsdk.json");
-        FileInputStream refreshToken = new FileInputStream(file);
-
-        FirebaseOptions options = FirebaseOptions.builder()
-                .setCredentials(GoogleCredentials.fromStream(refreshToken))
-                .build();
-
-        FirebaseApp.initializeApp(options);
-        this.fcmTokens = fcmTokens;
-        FirebaseMessaging.getInstance().subscribeToTopicAsync(fcmTokens, "pokemon");
+    private final ObjectFactory<FirebaseMessaging> messaging;
+    private final DeviceRegistry deviceRegistry;
+    private final FcmMulticastService multicastService;
+    private final DeliveryFeedback deliveryFeedback;
+    private final SendMetrics metrics;
+    private final IdempotencyStore idempotencyStore;
+    private final InterestIndex interestIndex;
+    // badge updates of a topic only matter for their latest value
+    private final Coalescer<Message, String> badgeUpdates;
+
+    public FirebaseNotificationController(ObjectFactory<FirebaseMessaging> messaging, DeviceRegistry deviceRegistry, FcmMulticastService multicastService,
+                                          DeliveryFeedback deliveryFeedback, SendMetrics metrics, IdempotencyStore idempotencyStore, InterestIndex interestIndex,
+                                          @Value("${notifications.badge.coalescing-window-ms:500}") long badgeCoalescingWindowMs) {
+        this.messaging = messaging;
+        this.deviceRegistry = deviceRegistry;
+        this.multicastService = multicastService;
+        this.deliveryFeedback = deliveryFeedback;
+        this.metrics = metrics;
+        this.idempotencyStore = idempotencyStore;
+        this.interestIndex = interestIndex;
+        this.badgeUpdates = new Coalescer<>(Duration.ofMillis(badgeCoalescingWindowMs), this::send);
     }
 
     @GetMapping("/notify")
     public ResponseEntity<String> sendNotification(@RequestParam String pokemon) throws FirebaseMessagingException {
+        String token;
+        try (var tokens = deviceRegistry.stream(DevicePlatform.FCM, null)) {
+            token = tokens.findFirst().orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No FCM device registered"));
+        }
 
         var builder = Message.builder()
                 .setApnsConfig(ApnsConfig.builder().setAps(Aps.builder().setBadge(1).build()).build())
@@ -49,32 +74,39 @@ public class FirebaseNotificationController {
                                 .build()
                 )
                 .putData("test", "test")
-                .setToken(fcmTokens.get(0));
+                .setToken(token);
 
         if (pokemon != null) builder.putData("pokemon", pokemon);
         Message message = builder.build();
-        String response = FirebaseMessaging.getInstance().send(message);
-        return ResponseEntity.ok(response);
+        try {
+            String response = metrics.recordBlocking(SendMetrics.FCM, "send", () -> messaging.getObject().send(message));
+            return ResponseEntity.ok(response);
+        } catch (FirebaseMessagingException e) {
+            deliveryFeedback.onFcmError(DevicePlatform.FCM, token, e);
+            throw e;
+        }
 
     }
 
+    /**
+     * Sent in chunks of at most {@value FcmMulticastService#MAX_TOKENS_PER_MULTICAST} tokens, FCM rejects bigger multicasts.
+     * <p>
+     * Answers the merged {@link FcmMulticastReport} of the chunks, not the list of message ids it used to: one id per
+     * token does not scale to a registry, and the ids were never used for anything but logging.
+     */
     @GetMapping("/notifications")
-    public ResponseEntity<List<String>> sendNotifications(@RequestParam String pokemon) throws FirebaseMessagingException {
-
-        var builder = MulticastMessage.builder()
-                .setNotification(
-                        Notification.builder()
-                                .setTitle("A wild pokemon appears !")
-                                .setBody("Click to see who it is")
-                                .build()
-                )
-                .addAllTokens(fcmTokens);
-        if (pokemon != null) builder.putData("pokemon", pokemon);
-        MulticastMessage message = builder.build();
-        var response = FirebaseMessaging.getInstance().sendEachForMulticast(message);
-        response.getResponses().forEach(r -> System.out.println(r.getMessageId()));
-        return ResponseEntity.ok(response.getResponses().stream().map(SendResponse::getMessageId).toList());
+    public Mono<ResponseEntity<FcmMulticastReport>> sendNotifications(@RequestParam String pokemon) {
+        return multicastService.send(deviceRegistry.tokens(DevicePlatform.FCM, null), tokens -> notificationsMessage(pokemon, tokens))
+                .map(ResponseEntity::ok);
+    }
 
+    /**
+     * Streaming mode of {@link #sendNotifications}: the outcome of each token as soon as its chunk completes, then a summary.
+     */
+    @GetMapping(value = "/notifications/stream", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<SendEvent> streamNotifications(@RequestParam String pokemon) {
+        return SendEvents.withSummary(multicastService.stream(Flux.fromStream(() -> deviceRegistry.stream(DevicePlatform.FCM, null)),
+                tokens -> notificationsMessage(pokemon, tokens)));
     }
 
     @GetMapping("/notify/{topic}")
@@ -88,53 +120,67 @@ public class FirebaseNotificationController {
                 )
                 .setTopic(topic)
                 .build();
-        var response = FirebaseMessaging.getInstance().send(message);
+        var response = metrics.recordBlocking(SendMetrics.FCM, "send", () -> messaging.getObject().send(message));
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/notify/wild-pokemon")
-    public ResponseEntity<String> sendNotificationToPokemonTopic(@RequestParam(required = false) String pokemon) throws FirebaseMessagingException {
-        var builder = Message.builder()
-                .setApnsConfig(ApnsConfig.builder().setAps(Aps.builder().setContentAvailable(true).setBadge(1).build()).build())
-                .setNotification(
-                        Notification.builder()
-                                .setTitle("A wild pokemon appears !")
-                                .setBody("Click to see who it is")
-                                .build()
-                )
-                .setTopic("pokemon");
-
-        if (pokemon != null) builder.putData("pokemon", pokemon);
-        else builder.putData("pokemon", String.valueOf(new Random().nextInt(1025) + 1));
-        Message message = builder.build();
-        var response = FirebaseMessaging.getInstance().send(message);
-        return ResponseEntity.ok(response);
+    public Mono<ResponseEntity<FcmMulticastReport>> sendNotificationToPokemonTopic(@RequestParam(required = false) String pokemon,
+                                                                                  @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+        // without a Pokemon, identical requests of the window share the random Pokemon of the first one
+        return idempotencyStore.execute(IdempotencyStore.key("fcm/notify/wild-pokemon", idempotencyKey, pokemon), () -> {
+                    var wildPokemon = NotificationPayloads.pokemonOrRandom(pokemon);
+                    // only the devices interested in this Pokemon are woken up
+                    List<String> tokens;
+                    try (var audience = interestIndex.tokens(DevicePlatform.FCM, interestIndex.audience(DevicePlatform.FCM, wildPokemon))) {
+                        tokens = audience.toList();
+                    }
+                    return multicastService.send(tokens, chunk -> FcmMessages.wildPokemonMulticast(wildPokemon).addAllTokens(chunk).build());
+                })
+                .map(ResponseEntity::ok);
     }
 
     @GetMapping("/reset/badge")
-    public ResponseEntity<String> resetBadge() throws FirebaseMessagingException {
+    public Mono<ResponseEntity<String>> resetBadge(@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
         var builder = Message.builder()
                 .setApnsConfig(ApnsConfig.builder().setAps(Aps.builder().setContentAvailable(true).setBadge(0).build()).build())
                 .setNotification(Notification.builder().build())
                 .setTopic("pokemon");
 
-
-        Message message = builder.build();
-        var response = FirebaseMessaging.getInstance().send(message);
-        return ResponseEntity.ok(response);
+        return idempotencyStore.execute(IdempotencyStore.key("fcm/reset/badge", idempotencyKey),
+                        () -> badgeUpdates.submit("pokemon", builder.build()))
+                .map(ResponseEntity::ok);
     }
 
     @GetMapping("/badge")
-    public ResponseEntity<String> setBadge(@RequestParam String number) throws FirebaseMessagingException {
+    public Mono<ResponseEntity<String>> setBadge(@RequestParam String number,
+                                                 @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
         var builder = Message.builder()
                 .setApnsConfig(ApnsConfig.builder().setAps(Aps.builder().setContentAvailable(true).build()).build())
                 .setNotification(Notification.builder().build())
                 .putData("badge", number)
                 .setTopic("pokemon");
 
+        return idempotencyStore.execute(IdempotencyStore.key("fcm/badge", idempotencyKey, number),
+                        () -> badgeUpdates.submit("pokemon", builder.build()))
+                .map(ResponseEntity::ok);
+    }
 
-        Message message = builder.build();
-        var response = FirebaseMessaging.getInstance().send(message);
-        return ResponseEntity.ok(response);
+    private static MulticastMessage notificationsMessage(String pokemon, List<String> tokens) {
+        var builder = MulticastMessage.builder()
+                .setNotification(
+                        Notification.builder()
+                                .setTitle("A wild pokemon appears !")
+                                .setBody("Click to see who it is")
+                                .build()
+                )
+                .addAllTokens(tokens);
+        if (pokemon != null) builder.putData("pokemon", pokemon);
+        return builder.build();
+    }
+
+    private Mono<String> send(Message message) {
+        return Mono.fromCallable(() -> metrics.recordBlocking(SendMetrics.FCM, "send", () -> messaging.getObject().send(message)))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 }
@@ -0,0 +1,27 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.governor.RateGovernor;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/governors")
+public class GovernorController {
+
+    private final TransportGovernors governors;
+
+    public GovernorController(TransportGovernors governors) {
+        this.governors = governors;
+    }
+
+    @GetMapping
+    public ResponseEntity<Map<NotificationProvider, RateGovernor.GovernorStats>> stats() {
+        return ResponseEntity.ok(governors.stats());
+    }
+}
@@ -0,0 +1,63 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.interest.InterestIndex;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Set;
+
+@RestController
+@RequestMapping("/interests")
+public class InterestController {
+
+    private final InterestIndex interestIndex;
+
+    public InterestController(InterestIndex interestIndex) {
+        this.interestIndex = interestIndex;
+    }
+
+    /**
+     * @param interests species ids, generations ({@code gen1} to {@code gen9}), configured groups or {@code *}
+     */
+    @PutMapping("/{platform}/{token}")
+    public ResponseEntity<Set<String>> update(@PathVariable DevicePlatform platform, @PathVariable String token, @RequestBody Set<String> interests) {
+        try {
+            if (!interestIndex.update(platform, token, interests)) {
+                return ResponseEntity.notFound().build();
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(interestIndex.interests(platform, token));
+    }
+
+    @GetMapping("/{platform}/{token}")
+    public ResponseEntity<Set<String>> get(@PathVariable DevicePlatform platform, @PathVariable String token) {
+        var interests = interestIndex.interests(platform, token);
+        return interests != null ? ResponseEntity.ok(interests) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * @param query interests combined with {@code &} and {@code |}, e.g. {@code gen1|legendary}
+     */
+    @GetMapping("/{platform}/audience")
+    public ResponseEntity<AudienceSize> query(@PathVariable DevicePlatform platform, @RequestParam String query) {
+        try {
+            return ResponseEntity.ok(new AudienceSize(query, interestIndex.query(platform, query).getLongCardinality()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/{platform}/audience/{pokemon}")
+    public ResponseEntity<AudienceSize> audience(@PathVariable DevicePlatform platform, @PathVariable String pokemon) {
+        return ResponseEntity.ok(new AudienceSize(pokemon, interestIndex.audience(platform, pokemon).getLongCardinality()));
+    }
+
+    /**
+     * @param devices matching device ids, devices unregistered since they chose their interests included
+     */
+    public record AudienceSize(String query, long devices) {
+    }
+}
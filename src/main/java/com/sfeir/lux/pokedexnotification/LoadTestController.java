@@ -0,0 +1,39 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.loadtest.LoadScenarioRunner;
+import com.sfeir.lux.pokedexnotification.loadtest.MockBehavior;
+import com.sfeir.lux.pokedexnotification.loadtest.Scenario;
+import com.sfeir.lux.pokedexnotification.loadtest.ScenarioReport;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/loadtest")
+@Profile("loadtest")
+public class LoadTestController {
+
+    private final LoadScenarioRunner scenarioRunner;
+    private final List<MockBehavior> standIns;
+
+    public LoadTestController(LoadScenarioRunner scenarioRunner, List<MockBehavior> standIns) {
+        this.scenarioRunner = scenarioRunner;
+        this.standIns = standIns;
+    }
+
+    /**
+     * Runs the scenario and answers with its report once it is over.
+     */
+    @PostMapping("/scenarios")
+    public Mono<ResponseEntity<ScenarioReport>> runScenario(@RequestBody Scenario scenario) {
+        return scenarioRunner.run(scenario).map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/stand-ins")
+    public ResponseEntity<List<MockBehavior.Stats>> getStandInStats() {
+        return ResponseEntity.ok(standIns.stream().map(MockBehavior::stats).toList());
+    }
+}
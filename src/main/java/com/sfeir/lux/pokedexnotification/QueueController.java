@@ -0,0 +1,37 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.sfeir.lux.pokedexnotification.queue.OutboundQueue;
+import com.sfeir.lux.pokedexnotification.queue.QueuedNotification;
+import com.sfeir.lux.pokedexnotification.queue.SegmentedLog;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/queue")
+public class QueueController {
+
+    private final OutboundQueue outboundQueue;
+
+    public QueueController(OutboundQueue outboundQueue) {
+        this.outboundQueue = outboundQueue;
+    }
+
+    /**
+     * @param target APNs device token, FCM topic or notification hub tag expression, depending on the provider
+     */
+    @PostMapping("/{provider}")
+    public ResponseEntity<QueuedNotification> enqueue(@PathVariable NotificationProvider provider, @RequestParam String target, @RequestParam(required = false) String pokemon) {
+        if (!SegmentedLog.fits(target) || !SegmentedLog.fits(pokemon)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "target and pokemon must be at most " + SegmentedLog.MAX_FIELD_BYTES + " bytes");
+        }
+        return ResponseEntity.accepted().body(outboundQueue.enqueue(provider, target, pokemon));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<OutboundQueue.QueueStats> stats() {
+        return ResponseEntity.ok(outboundQueue.stats());
+    }
+}
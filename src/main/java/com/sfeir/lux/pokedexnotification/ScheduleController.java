@@ -0,0 +1,68 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.sfeir.lux.pokedexnotification.queue.SegmentedLog;
+import com.sfeir.lux.pokedexnotification.schedule.NotificationScheduler;
+import com.sfeir.lux.pokedexnotification.schedule.ScheduledNotification;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/schedules")
+public class ScheduleController {
+
+    private final NotificationScheduler scheduler;
+
+    public ScheduleController(NotificationScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param provider queue provider of the notification, a campaign to every platform if absent
+     * @param target   topic of a campaign, or the queue target of the provider
+     * @param at       due time, ISO-8601
+     * @param delayMs  due time relative to now, when {@code at} is absent
+     */
+    @PostMapping
+    public ResponseEntity<ScheduledNotification> schedule(@RequestParam(required = false) NotificationProvider provider,
+                                                          @RequestParam(defaultValue = "pokemon") String target,
+                                                          @RequestParam(required = false) String pokemon,
+                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant at,
+                                                          @RequestParam(required = false) Long delayMs) {
+        if (at == null && delayMs == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either at or delayMs is required");
+        }
+        if (!SegmentedLog.fits(target) || !SegmentedLog.fits(pokemon)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "target and pokemon must be at most " + SegmentedLog.MAX_FIELD_BYTES + " bytes");
+        }
+        var dueAt = at != null ? at : Instant.now().plus(Duration.ofMillis(delayMs));
+        return ResponseEntity.status(HttpStatus.CREATED).body(scheduler.schedule(provider, target, pokemon, dueAt));
+    }
+
+    @GetMapping
+    public ResponseEntity<List<ScheduledNotification>> list(@RequestParam(required = false) String target, @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(scheduler.list(target, limit));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<NotificationScheduler.ScheduleStats> stats() {
+        return ResponseEntity.ok(scheduler.stats());
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ScheduledNotification> get(@PathVariable long id) {
+        return ResponseEntity.of(scheduler.get(id));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<ScheduledNotification> cancel(@PathVariable long id) {
+        return ResponseEntity.of(scheduler.cancel(id));
+    }
+}
@@ -0,0 +1,75 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.apns.ApnsFanOutReport;
+import com.sfeir.lux.pokedexnotification.apns.ApnsFanOutService;
+import com.sfeir.lux.pokedexnotification.dispatch.DeliveryOutcome;
+import com.sfeir.lux.pokedexnotification.fcm.FcmMessages;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.payload.PayloadPlatform;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.sfeir.lux.pokedexnotification.tenant.TenantRegistry;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+/**
+ * "Wild Pokemon" sends of one tenant, through its own clients and rate budget, see {@link TenantRegistry}.
+ */
+@RestController
+@RequestMapping("/tenants")
+public class TenantController {
+
+    private final TenantRegistry tenantRegistry;
+    private final NotificationPayloads payloads;
+    private final SendMetrics metrics;
+
+    public TenantController(TenantRegistry tenantRegistry, NotificationPayloads payloads, SendMetrics metrics) {
+        this.tenantRegistry = tenantRegistry;
+        this.payloads = payloads;
+        this.metrics = metrics;
+    }
+
+    @GetMapping
+    public ResponseEntity<TenantRegistry.TenantRegistryStats> stats() {
+        return ResponseEntity.ok(tenantRegistry.stats());
+    }
+
+    @PostMapping("/{tenant}/apns/notify")
+    public Mono<ResponseEntity<ApnsFanOutReport>> sendApns(@PathVariable String tenant, @RequestBody List<String> devices,
+                                                           @RequestParam(required = false) String pokemon) {
+        var payload = payloads.render(PayloadPlatform.PUSHY, pokemon);
+        return tenantRegistry.with(tenant, clients -> clients.apnsFanOut().fanOut(Flux.fromIterable(devices), payload, ApnsFanOutService.Transport.PUSHY))
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/{tenant}/fcm/notify/{topic}")
+    public Mono<ResponseEntity<String>> sendFcm(@PathVariable String tenant, @PathVariable String topic,
+                                                @RequestParam(required = false) String pokemon) {
+        var message = FcmMessages.wildPokemon(NotificationPayloads.pokemonOrRandom(pokemon))
+                .setTopic(topic)
+                .build();
+        return tenantRegistry.with(tenant, clients -> clients.governors().get(NotificationProvider.FCM)
+                        .throttle(() -> metrics.record(SendMetrics.FCM, "send",
+                                () -> Mono.fromCallable(() -> clients.firebaseMessaging().send(message)).subscribeOn(Schedulers.boundedElastic()),
+                                messageId -> SendMetrics.Outcome.success())))
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/{tenant}/azure/notify/{tag}")
+    public Mono<ResponseEntity<DeliveryOutcome>> sendAzure(@PathVariable String tenant, @PathVariable String tag,
+                                                           @RequestParam(required = false) String pokemon) {
+        return tenantRegistry.with(tenant, clients -> clients.azure().send(List.of(tag), clients.azure().render(pokemon)))
+                .map(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,27 @@
+package com.sfeir.lux.pokedexnotification;
+
+import com.sfeir.lux.pokedexnotification.fcm.TopicMembershipService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/topics")
+public class TopicController {
+
+    private final TopicMembershipService membershipService;
+
+    public TopicController(TopicMembershipService membershipService) {
+        this.membershipService = membershipService;
+    }
+
+    @GetMapping("/{topic}")
+    public ResponseEntity<TopicMembershipService.TopicMembership> membership(@PathVariable String topic) {
+        return ResponseEntity.ok(membershipService.membership(topic));
+    }
+
+    @PostMapping("/{topic}/sync")
+    public Mono<ResponseEntity<TopicMembershipService.TopicSyncReport>> sync(@PathVariable String topic) {
+        return membershipService.sync(topic).map(ResponseEntity::ok);
+    }
+}
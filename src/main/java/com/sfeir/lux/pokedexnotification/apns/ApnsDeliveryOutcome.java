@@ -0,0 +1,31 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import java.time.Instant;
+
+/**
+ * Result of one notification sent to one device, whatever the transport used.
+ *
+ * @param apnsUniqueId       the apns-unique-id returned by Apple, null if the notification was not accepted
+ * @param reason             the rejection reason returned by Apple, or the transport error message
+ * @param tokenInvalidatedAt when Apple last confirmed the device token was no longer valid, only set for Unregistered rejections
+ */
+public record ApnsDeliveryOutcome(String device, Status status, String apnsUniqueId, String reason, Instant tokenInvalidatedAt) {
+
+    public enum Status {
+        ACCEPTED,
+        REJECTED,
+        FAILED
+    }
+
+    public static ApnsDeliveryOutcome accepted(String device, String apnsUniqueId) {
+        return new ApnsDeliveryOutcome(device, Status.ACCEPTED, apnsUniqueId, null, null);
+    }
+
+    public static ApnsDeliveryOutcome rejected(String device, String reason, Instant tokenInvalidatedAt) {
+        return new ApnsDeliveryOutcome(device, Status.REJECTED, null, reason, tokenInvalidatedAt);
+    }
+
+    public static ApnsDeliveryOutcome failed(String device, Throwable error) {
+        return new ApnsDeliveryOutcome(device, Status.FAILED, null, error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName(), null);
+    }
+}
@@ -0,0 +1,25 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregated outcome of a fan-out: counters for every device, details only for the first devices that did not get the notification.
+ *
+ * @param pruned               devices removed from the registry because Apple reported their token as permanently invalid
+ * @param undelivered          the first {@value ApnsFanOutService#MAX_UNDELIVERED} devices that did not get the notification,
+ *                             {@code rejectionReasons} counts all of them
+ * @param undeliveredTruncated devices that did not get the notification and are left out of {@code undelivered}
+ */
+public record ApnsFanOutReport(long sent,
+                               long accepted,
+                               long rejected,
+                               long failed,
+                               long pruned,
+                               Map<String, Long> rejectionReasons,
+                               List<ApnsDeliveryOutcome> undelivered,
+                               long undeliveredTruncated,
+                               Duration elapsed,
+                               double notificationsPerSecond) {
+}
@@ -0,0 +1,169 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.DeliveryPriority;
+import com.eatthepath.pushy.apns.PushType;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import com.eatthepath.pushy.apns.util.TokenUtil;
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.governor.RateGovernor;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.RenderedPayload;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.eatthepath.pushy.apns.util.SimpleApnsPushNotification.DEFAULT_EXPIRATION_PERIOD;
+
+/**
+ * Pushes one payload to a stream of devices while keeping at most {@code concurrency} HTTP/2 streams in flight.
+ * <p>
+ * Devices are only pulled from the source when a send completes, so a slow APNs slows down the source instead of
+ * piling up pending futures. Every send also goes through the APNs {@link RateGovernor}, which slows down when
+ * APNs answers {@code TooManyRequests}.
+ */
+@Service
+public class ApnsFanOutService {
+
+    private static final Logger log = LoggerFactory.getLogger(ApnsFanOutService.class);
+
+    // a fan-out to a whole registry with a bad certificate would otherwise keep an outcome per device
+    static final int MAX_UNDELIVERED = 100;
+
+    public enum Transport {
+        PUSHY,
+        WEBCLIENT
+    }
+
+    private final ObjectFactory<ApnsClient> apnsClient;
+    private final ApnsWebClientSender webClientSender;
+    private final DeliveryFeedback deliveryFeedback;
+    private final RateGovernor governor;
+    private final SendMetrics metrics;
+    private final String topic;
+    private final int defaultConcurrency;
+
+    /**
+     * @param deliveryFeedback prunes the rejected devices from the registry, null if the devices are not registry ones
+     */
+    public ApnsFanOutService(ObjectFactory<ApnsClient> apnsClient, ApnsWebClientSender webClientSender, DeliveryFeedback deliveryFeedback,
+                             TransportGovernors governors, SendMetrics metrics,
+                             @Value("${apns.topic}") String topic,
+                             @Value("${apns.fan-out.concurrency:500}") int defaultConcurrency) {
+        if (defaultConcurrency <= 0) {
+            throw new IllegalArgumentException("APNs fan-out concurrency must be positive");
+        }
+        this.apnsClient = apnsClient;
+        this.webClientSender = webClientSender;
+        this.deliveryFeedback = deliveryFeedback;
+        this.governor = governors.get(NotificationProvider.APNS);
+        this.metrics = metrics;
+        this.topic = topic;
+        this.defaultConcurrency = defaultConcurrency;
+    }
+
+    public Mono<ApnsFanOutReport> fanOut(Flux<String> devices, RenderedPayload payload, Transport transport) {
+        return fanOut(devices, payload, transport, defaultConcurrency);
+    }
+
+    public Mono<ApnsFanOutReport> fanOut(Flux<String> devices, RenderedPayload payload, Transport transport, int concurrency) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return devices
+                    .flatMap(device -> send(device, payload, transport), concurrency)
+                    .collect(Aggregator::new, (aggregator, outcome) -> aggregator.add(outcome, deliveryFeedback != null && deliveryFeedback.onApnsOutcome(outcome)))
+                    .map(aggregator -> aggregator.toReport(Duration.ofNanos(System.nanoTime() - start)))
+                    .doOnNext(report -> log.info("APNs fan-out over {}: {} sent, {} accepted, {} pruned in {} ms ({} notifications/s)",
+                            transport, report.sent(), report.accepted(), report.pruned(), report.elapsed().toMillis(), Math.round(report.notificationsPerSecond())));
+        });
+    }
+
+    public Mono<ApnsDeliveryOutcome> send(String device, RenderedPayload payload, Transport transport) {
+        return governor.throttle(() -> metrics.record(SendMetrics.APNS, transport.name().toLowerCase(), () -> switch (transport) {
+                    case PUSHY -> sendWithPushy(device, payload);
+                    case WEBCLIENT -> webClientSender.send(device, payload);
+                }, ApnsFanOutService::toMetricsOutcome))
+                .doOnNext(outcome -> {
+                    if (outcome.status() == ApnsDeliveryOutcome.Status.ACCEPTED) {
+                        governor.onSuccess();
+                    } else if ("TooManyRequests".equals(outcome.reason())) {
+                        governor.onThrottled();
+                    }
+                });
+    }
+
+    private static SendMetrics.Outcome toMetricsOutcome(ApnsDeliveryOutcome outcome) {
+        return switch (outcome.status()) {
+            case ACCEPTED -> SendMetrics.Outcome.success();
+            case REJECTED -> SendMetrics.Outcome.rejected(outcome.reason());
+            // the reason of a failure is the exception message, too many values for a tag
+            case FAILED -> new SendMetrics.Outcome("error", "TransportError");
+        };
+    }
+
+    private Mono<ApnsDeliveryOutcome> sendWithPushy(String device, RenderedPayload payload) {
+        var pushNotification = new SimpleApnsPushNotification(TokenUtil.sanitizeTokenString(device), topic, payload.json(),
+                Instant.now().plus(DEFAULT_EXPIRATION_PERIOD), DeliveryPriority.CONSERVE_POWER, PushType.ALERT);
+        return Mono.fromFuture(() -> apnsClient.getObject().sendNotification(pushNotification))
+                .map(response -> response.isAccepted()
+                        ? ApnsDeliveryOutcome.accepted(device, response.getApnsUniqueId().map(UUID::toString).orElse(null))
+                        : ApnsDeliveryOutcome.rejected(device, response.getRejectionReason().orElse("Unknown"), response.getTokenInvalidationTimestamp().orElse(null)))
+                .onErrorResume(e -> Mono.just(ApnsDeliveryOutcome.failed(device, e)));
+    }
+
+    private static final class Aggregator {
+        private long accepted;
+        private long rejected;
+        private long failed;
+        private long pruned;
+        private final Map<String, Long> rejectionReasons = new HashMap<>();
+        private final List<ApnsDeliveryOutcome> undelivered = new ArrayList<>();
+        private long undeliveredTruncated;
+
+        void add(ApnsDeliveryOutcome outcome, boolean prunedToken) {
+            if (prunedToken) {
+                pruned++;
+            }
+            switch (outcome.status()) {
+                case ACCEPTED -> accepted++;
+                case REJECTED -> {
+                    rejected++;
+                    rejectionReasons.merge(outcome.reason(), 1L, Long::sum);
+                    addUndelivered(outcome);
+                }
+                case FAILED -> {
+                    failed++;
+                    addUndelivered(outcome);
+                }
+            }
+        }
+
+        private void addUndelivered(ApnsDeliveryOutcome outcome) {
+            if (undelivered.size() < MAX_UNDELIVERED) {
+                undelivered.add(outcome);
+            } else {
+                undeliveredTruncated++;
+            }
+        }
+
+        ApnsFanOutReport toReport(Duration elapsed) {
+            long sent = accepted + rejected + failed;
+            double seconds = Math.max(elapsed.toNanos(), 1) / 1_000_000_000d;
+            return new ApnsFanOutReport(sent, accepted, rejected, failed, pruned, rejectionReasons, undelivered, undeliveredTruncated, elapsed, sent / seconds);
+        }
+    }
+}
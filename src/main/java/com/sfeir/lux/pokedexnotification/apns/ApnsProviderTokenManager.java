@@ -0,0 +1,179 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import com.google.gson.JsonObject;
+import com.sfeir.lux.pokedexnotification.config.TokenCacheHolder;
+import io.jsonwebtoken.Jwts;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ResourceUtils;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds one APNs provider token per (teamId, keyId).
+ * <p>
+ * Apple wants the token to be refreshed no more than once every 20 minutes and rejects it after 60 minutes,
+ * so tokens are re-signed in the background before they expire and the request path only reads them.
+ */
+@Component
+public class ApnsProviderTokenManager implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ApnsProviderTokenManager.class);
+
+    private final String defaultTeamId;
+    private final String defaultKeyId;
+    private final long refreshAfterMinutes;
+    private final long expireAfterMinutes;
+    private final ApnsSigningKeyLoader keyLoader;
+
+    private final Map<String, PrivateKey> signingKeys = new ConcurrentHashMap<>();
+    private final Map<ProviderKey, Slot> slots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("apns-token-refresh").daemon().factory());
+
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong minted = new AtomicLong();
+
+    public ApnsProviderTokenManager(@Value("${apns.teamId}") String teamId,
+                                    @Value("${apns.keyId}") String keyId,
+                                    @Value("${apns.token.refresh-after-minutes:40}") long refreshAfterMinutes,
+                                    @Value("${apns.token.expire-after-minutes:50}") long expireAfterMinutes,
+                                    ObjectProvider<ApnsSigningKeyLoader> keyLoader) {
+        this(teamId, keyId, refreshAfterMinutes, expireAfterMinutes, keyLoader.getIfAvailable(() -> ApnsProviderTokenManager::loadSigningKey));
+    }
+
+    // keyLoader loads the signing key of a key id, the benchmarks use generated keys instead of .p8 files
+    ApnsProviderTokenManager(String teamId, String keyId, long refreshAfterMinutes, long expireAfterMinutes, ApnsSigningKeyLoader keyLoader) {
+        if (refreshAfterMinutes < 20 || expireAfterMinutes > 60 || refreshAfterMinutes >= expireAfterMinutes) {
+            throw new IllegalArgumentException("APNs provider token must be refreshed between 20 and 60 minutes, before it expires");
+        }
+        this.defaultTeamId = teamId;
+        this.defaultKeyId = keyId;
+        this.refreshAfterMinutes = refreshAfterMinutes;
+        this.expireAfterMinutes = expireAfterMinutes;
+        this.keyLoader = keyLoader;
+        // pre-warm the default key so the first notification doesn't pay for the signature
+        refresher.execute(() -> refreshInBackground(new ProviderKey(teamId, keyId)));
+    }
+
+    public String getToken() {
+        return getToken(defaultTeamId, defaultKeyId);
+    }
+
+    public String getToken(String teamId, String keyId) {
+        var key = new ProviderKey(teamId, keyId);
+        var slot = slots.computeIfAbsent(key, k -> new Slot());
+        var current = slot.holder;
+        if (isValid(current)) {
+            reused.incrementAndGet();
+            return current.token();
+        }
+        // single-flight: concurrent misses wait for the first one to sign instead of signing in parallel
+        slot.lock.lock();
+        try {
+            current = slot.holder;
+            if (isValid(current)) {
+                reused.incrementAndGet();
+                return current.token();
+            }
+            return mint(key, slot).token();
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(reused.get(), minted.get());
+    }
+
+    private void refreshInBackground(ProviderKey key) {
+        var slot = slots.computeIfAbsent(key, k -> new Slot());
+        slot.lock.lock();
+        try {
+            mint(key, slot);
+        } catch (RuntimeException e) {
+            log.warn("Unable to refresh APNs provider token for key {}, retrying in one minute", key.keyId(), e);
+            slot.scheduledRefresh = refresher.schedule(() -> refreshInBackground(key), 1, TimeUnit.MINUTES);
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    // caller must hold the slot lock
+    private TokenCacheHolder mint(ProviderKey key, Slot slot) {
+        var issuedAt = LocalDateTime.now(ZoneOffset.UTC);
+        var token = sign(key.teamId(), key.keyId(), issuedAt);
+
+        var holder = new TokenCacheHolder(token, issuedAt.plusMinutes(expireAfterMinutes));
+        slot.holder = holder;
+        minted.incrementAndGet();
+
+        if (slot.scheduledRefresh != null) {
+            slot.scheduledRefresh.cancel(false);
+        }
+        slot.scheduledRefresh = refresher.schedule(() -> refreshInBackground(key), refreshAfterMinutes, TimeUnit.MINUTES);
+        return holder;
+    }
+
+    String sign(String teamId, String keyId, LocalDateTime issuedAt) {
+        JsonObject jwtPayload = new JsonObject();
+        jwtPayload.addProperty("iss", teamId);
+        jwtPayload.addProperty("iat", issuedAt.toEpochSecond(ZoneOffset.UTC));
+        return Jwts.builder()
+                .header().add(Map.of("alg", "ES256", "kid", keyId)).and()
+                .content(jwtPayload.toString())
+                .signWith(signingKeys.computeIfAbsent(keyId, keyLoader::load))
+                .compact();
+    }
+
+    private static PrivateKey loadSigningKey(String keyId) {
+        try {
+            // create a key from .p8 file
+            byte[] p8der = FileUtils.readFileToByteArray(ResourceUtils.getFile(String.format("classpath:AuthKey_%s.p8", keyId)));
+            PKCS8EncodedKeySpec priPKCS8 = new PKCS8EncodedKeySpec(new org.apache.commons.codec.binary.Base64().decode(p8der));
+            return KeyFactory.getInstance("EC").generatePrivate(priPKCS8);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to load APNs signing key " + keyId, e);
+        }
+    }
+
+    private static boolean isValid(TokenCacheHolder holder) {
+        return holder != null && holder.expirationDate().isAfter(LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+
+    public record Stats(long reused, long minted) {
+    }
+
+    private record ProviderKey(String teamId, String keyId) {
+    }
+
+    private static final class Slot {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile TokenCacheHolder holder;
+        private ScheduledFuture<?> scheduledRefresh;
+    }
+}
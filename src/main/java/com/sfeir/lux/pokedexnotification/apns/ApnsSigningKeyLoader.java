@@ -0,0 +1,13 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import java.security.PrivateKey;
+
+/**
+ * Loads the private key of an APNs key id. Without such a bean, keys are read from the {@code AuthKey_<keyId>.p8}
+ * classpath resources.
+ */
+@FunctionalInterface
+public interface ApnsSigningKeyLoader {
+
+    PrivateKey load(String keyId);
+}
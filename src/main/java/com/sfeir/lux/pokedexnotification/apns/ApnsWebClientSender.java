@@ -0,0 +1,86 @@
+package com.sfeir.lux.pokedexnotification.apns;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sfeir.lux.pokedexnotification.payload.RenderedPayload;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Sends APNs notifications over the raw HTTP/2 {@link WebClient}, authenticated with the shared provider token.
+ */
+@Component
+public class ApnsWebClientSender {
+
+    private final WebClient webClient;
+    private final ApnsProviderTokenManager providerTokenManager;
+    private final String topic;
+    private final String deviceUri;
+
+    public ApnsWebClientSender(WebClient webClient, ApnsProviderTokenManager providerTokenManager, @Value("${apns.topic}") String topic,
+                               @Value("${apns.production:false}") boolean production,
+                               @Value("${apns.url:}") String url) {
+        this.webClient = webClient;
+        this.providerTokenManager = providerTokenManager;
+        this.topic = topic;
+        // apns.url points the sender to another server, such as a local stub
+        String baseUrl = !url.isBlank() ? url : production ? "https://api.push.apple.com:443" : "https://api.sandbox.push.apple.com:443";
+        this.deviceUri = baseUrl + "/3/device/";
+    }
+
+    public Mono<ApnsDeliveryOutcome> send(String device, RenderedPayload payload) {
+        // need to use webclient because Apple endpoint is in HTTP/2
+        return webClient.post()
+                .uri(deviceUri + device)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(payload.bytes())
+                .header("apns-id", UUID.randomUUID().toString())
+                .header("apns-push-type", "alert")
+                .header("apns-expiration", "0")
+                .header("apns-topic", topic)
+                .header("apns-priority", "5")
+                .header("Authorization", "Bearer " + providerTokenManager.getToken())
+                .exchangeToMono(response -> {
+                    if (response.statusCode().is2xxSuccessful()) {
+                        return response.releaseBody().thenReturn(ApnsDeliveryOutcome.accepted(device,
+                                response.headers().header("apns-unique-id").stream().findFirst().orElse(null)));
+                    }
+                    int status = response.statusCode().value();
+                    return response.bodyToMono(String.class)
+                            .map(body -> rejected(device, status, body))
+                            .defaultIfEmpty(ApnsDeliveryOutcome.rejected(device, String.valueOf(status), null));
+                })
+                .onErrorResume(e -> Mono.just(ApnsDeliveryOutcome.failed(device, e)));
+    }
+
+    /**
+     * Apple explains a rejection with a {"reason": "...", "timestamp": ...} body, the timestamp is only set for
+     * Unregistered. Any other body, such as the HTML page of a proxy, is a rejection by the status code alone.
+     */
+    static ApnsDeliveryOutcome rejected(String device, int status, String body) {
+        JsonElement parsed;
+        try {
+            parsed = JsonParser.parseString(body);
+        } catch (JsonParseException e) {
+            return ApnsDeliveryOutcome.rejected(device, String.valueOf(status), null);
+        }
+        if (!parsed.isJsonObject() || !isPrimitive(parsed.getAsJsonObject().get("reason"))) {
+            return ApnsDeliveryOutcome.rejected(device, String.valueOf(status), null);
+        }
+        var error = parsed.getAsJsonObject();
+        var timestamp = error.get("timestamp");
+        return ApnsDeliveryOutcome.rejected(device, error.get("reason").getAsString(),
+                isPrimitive(timestamp) && timestamp.getAsJsonPrimitive().isNumber() ? Instant.ofEpochMilli(timestamp.getAsLong()) : null);
+    }
+
+    private static boolean isPrimitive(JsonElement element) {
+        return element != null && element.isJsonPrimitive();
+    }
+}
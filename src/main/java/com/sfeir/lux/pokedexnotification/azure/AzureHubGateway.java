@@ -0,0 +1,113 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import com.sfeir.lux.pokedexnotification.governor.RateGovernor;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.windowsazure.messaging.NotificationHub;
+import com.windowsazure.messaging.NotificationHubClient;
+import com.windowsazure.messaging.NotificationHubsException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.function.SingletonSupplier;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs the blocking {@link NotificationHub} client on dedicated virtual threads, behind a bulkhead and a timeout,
+ * so a slow hub can't hold the servlet threads used by the Firebase and APNs endpoints.
+ * <p>
+ * Calls are paced by the Azure {@link RateGovernor}, which slows down when the hub answers 429. The hub client is
+ * built on the first call, or by {@link #initialize()}.
+ */
+@Component
+public class AzureHubGateway implements DisposableBean {
+
+    @FunctionalInterface
+    public interface HubCall<T> {
+        T call(NotificationHubClient hub) throws NotificationHubsException;
+    }
+
+    private final SingletonSupplier<NotificationHubClient> hub;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("azure-hub-", 0).factory());
+    private final Scheduler scheduler = Schedulers.fromExecutorService(executor, "azure-hub");
+    private final RateGovernor governor;
+    private final SendMetrics metrics;
+    private final Semaphore bulkhead;
+    private final Duration bulkheadWait;
+    private final Duration timeout;
+
+    public AzureHubGateway(@Value("${azure.connection-string}") String connectionString,
+                           @Value("${azure.hub-path}") String hubPath,
+                           @Value("${azure.hub.max-concurrent-calls:32}") int maxConcurrentCalls,
+                           @Value("${azure.hub.bulkhead-wait-ms:500}") long bulkheadWaitMs,
+                           @Value("${azure.hub.timeout-ms:10000}") long timeoutMs,
+                           TransportGovernors governors, SendMetrics metrics) {
+        this.hub = SingletonSupplier.of(() -> new NotificationHub(connectionString, hubPath));
+        this.governor = governors.get(NotificationProvider.AZURE);
+        this.metrics = metrics;
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.bulkheadWait = Duration.ofMillis(bulkheadWaitMs);
+        this.timeout = Duration.ofMillis(timeoutMs);
+    }
+
+    public void initialize() {
+        hub.obtain();
+    }
+
+    public <T> Mono<T> call(HubCall<T> call) {
+        return governed(() -> callHub(call));
+    }
+
+    /**
+     * Same as {@link #call(HubCall)} for a notification send, recorded in the send metrics under {@code operation}.
+     */
+    public <T> Mono<T> send(String operation, HubCall<T> call) {
+        return governed(() -> metrics.record(SendMetrics.AZURE, operation, () -> callHub(call), result -> SendMetrics.Outcome.success()));
+    }
+
+    private <T> Mono<T> governed(Supplier<Mono<T>> call) {
+        return governor.throttle(call)
+                .doOnSuccess(result -> governor.onSuccess())
+                .doOnError(NotificationHubsException.class, e -> {
+                    if (e.getHttpStatusCode() == 429) {
+                        governor.onThrottled();
+                    }
+                });
+    }
+
+    private <T> Mono<T> callHub(HubCall<T> call) {
+        return Mono.fromCallable(() -> {
+                    if (!bulkhead.tryAcquire(bulkheadWait.toMillis(), TimeUnit.MILLISECONDS)) {
+                        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many pending calls to the notification hub");
+                    }
+                    try {
+                        return call.call(hub.obtain());
+                    } finally {
+                        bulkhead.release();
+                    }
+                })
+                .subscribeOn(scheduler)
+                // on timeout the virtual thread is interrupted, which aborts the pending hub request and frees its permit
+                .timeout(timeout)
+                .onErrorMap(TimeoutException.class, e -> new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Notification hub did not answer in " + timeout.toMillis() + " ms", e));
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+        executor.shutdownNow();
+    }
+}
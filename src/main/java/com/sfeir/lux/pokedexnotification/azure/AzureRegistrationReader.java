@@ -0,0 +1,53 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import com.windowsazure.messaging.CollectionResult;
+import com.windowsazure.messaging.Registration;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Walks every registration of the hub by following its continuation tokens, one page request at a time.
+ */
+@Component
+public class AzureRegistrationReader {
+
+    // the hub never returns more than 100 registrations per page
+    public static final int MAX_PAGE_SIZE = 100;
+
+    private final AzureHubGateway hubGateway;
+
+    public AzureRegistrationReader(AzureHubGateway hubGateway) {
+        this.hubGateway = hubGateway;
+    }
+
+    /**
+     * @param tag      only registrations with this tag, all of them if null
+     * @param platform only registrations of this platform, all of them if null
+     */
+    public Flux<Registration> readAll(String tag, RegistrationPlatform platform, int pageSize) {
+        int top = Math.min(Math.max(pageSize, 1), MAX_PAGE_SIZE);
+        return readPages(tag, top, null)
+                .concatMapIterable(CollectionResult::getRegistrations, 1)
+                .filter(registration -> platform == null || platform.matches(registration));
+    }
+
+    /**
+     * @param continuationToken token of the first page to read, from the beginning of the hub if null
+     */
+    public Flux<CollectionResult> readPages(String tag, int top, String continuationToken) {
+        // pages are fetched one after the other as they are requested, not once the previous one has been consumed:
+        // readAll keeps one page ahead of the registration being read, readPages subscribers may request more
+        return fetchPage(tag, top, continuationToken)
+                .expand(page -> StringUtils.hasText(page.getContinuationToken())
+                        ? fetchPage(tag, top, page.getContinuationToken())
+                        : Mono.empty());
+    }
+
+    private Mono<CollectionResult> fetchPage(String tag, int top, String continuationToken) {
+        return hubGateway.call(hub -> tag != null
+                ? hub.getRegistrationsByTag(tag, top, continuationToken)
+                : hub.getRegistrations(top, continuationToken));
+    }
+}
@@ -0,0 +1,58 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import reactor.core.Disposable;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mutable state of a running bulk registration job.
+ */
+final class RegistrationJob {
+
+    final String id;
+    final RegistrationJobType type;
+    final Set<String> tags;
+    final long createdAt;
+
+    volatile RegistrationJobState state;
+    volatile String continuationToken;
+    volatile Disposable subscription;
+    // when the job completed, failed or was cancelled, 0 while it runs
+    volatile long finishedAt;
+
+    final AtomicLong updated;
+    final AtomicLong skipped;
+    final AtomicLong failed;
+
+    // throughput is measured since the job was (re)started by this instance
+    private final long runStartedAt = System.nanoTime();
+    private final long processedAtRunStart;
+
+    RegistrationJob(RegistrationJobStatus checkpoint) {
+        this.id = checkpoint.id();
+        this.type = checkpoint.type();
+        this.tags = checkpoint.tags();
+        this.createdAt = checkpoint.createdAt();
+        this.state = checkpoint.state();
+        this.continuationToken = checkpoint.continuationToken();
+        this.updated = new AtomicLong(checkpoint.updated());
+        this.skipped = new AtomicLong(checkpoint.skipped());
+        this.failed = new AtomicLong(checkpoint.failed());
+        this.processedAtRunStart = checkpoint.processed();
+        // a finished job is checkpointed for the last time when it finishes
+        this.finishedAt = checkpoint.state() != RegistrationJobState.RUNNING ? checkpoint.updatedAt() : 0;
+    }
+
+    void finish(RegistrationJobState state) {
+        this.finishedAt = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    RegistrationJobStatus status() {
+        long processed = updated.get() + skipped.get() + failed.get();
+        double seconds = Math.max(System.nanoTime() - runStartedAt, 1) / 1_000_000_000d;
+        return new RegistrationJobStatus(id, type, tags, state, continuationToken, processed, updated.get(), skipped.get(), failed.get(),
+                createdAt, System.currentTimeMillis(), (processed - processedAtRunStart) / seconds);
+    }
+}
@@ -0,0 +1,216 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import com.google.gson.Gson;
+import com.windowsazure.messaging.CollectionResult;
+import com.windowsazure.messaging.Registration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Applies a mutation to every registration of the hub in the background.
+ * <p>
+ * Registrations of a page are updated with bounded parallelism and individual failures are retried, then counted
+ * without stopping the job. The continuation token of the next page is checkpointed on disk after each page, so a
+ * job still running when the application stops is resumed from that page on the next start. A finished job, with its
+ * checkpoint, is forgotten {@code azure.jobs.retention-ms} after it finished.
+ */
+@Service
+public class RegistrationJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(RegistrationJobService.class);
+    private static final Gson GSON = new Gson();
+
+    private final AzureRegistrationReader registrationReader;
+    private final AzureHubGateway hubGateway;
+    private final RegistrationTemplateConverter templateConverter;
+    private final Path directory;
+    private final int concurrency;
+    private final int maxRetries;
+    private final long retentionMs;
+
+    private final Map<String, RegistrationJob> jobs = new ConcurrentHashMap<>();
+
+    public RegistrationJobService(AzureRegistrationReader registrationReader,
+                                  AzureHubGateway hubGateway,
+                                  RegistrationTemplateConverter templateConverter,
+                                  @Value("${azure.jobs.directory:data/azure-jobs}") Path directory,
+                                  @Value("${azure.jobs.concurrency:16}") int concurrency,
+                                  @Value("${azure.jobs.max-retries:3}") int maxRetries,
+                                  @Value("${azure.jobs.retention-ms:604800000}") long retentionMs) {
+        this.registrationReader = registrationReader;
+        this.hubGateway = hubGateway;
+        this.templateConverter = templateConverter;
+        this.directory = directory;
+        this.concurrency = concurrency;
+        this.maxRetries = maxRetries;
+        this.retentionMs = retentionMs;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJobs() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".json")).forEach(file -> {
+                try {
+                    var job = new RegistrationJob(GSON.fromJson(Files.readString(file), RegistrationJobStatus.class));
+                    if (isExpired(job, System.currentTimeMillis())) {
+                        deleteCheckpoint(job);
+                        return;
+                    }
+                    jobs.put(job.id, job);
+                    if (job.state == RegistrationJobState.RUNNING) {
+                        log.info("Resuming registration job {} ({})", job.id, job.type);
+                        run(job);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Ignoring unreadable registration job checkpoint {}", file, e);
+                }
+            });
+        }
+    }
+
+    public RegistrationJobStatus start(RegistrationJobType type, Set<String> tags) {
+        evictExpired();
+        long now = System.currentTimeMillis();
+        var job = new RegistrationJob(new RegistrationJobStatus(UUID.randomUUID().toString(), type, tags, RegistrationJobState.RUNNING,
+                null, 0, 0, 0, 0, now, now, 0));
+        jobs.put(job.id, job);
+        checkpoint(job);
+        run(job);
+        return job.status();
+    }
+
+    public Optional<RegistrationJobStatus> get(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(RegistrationJob::status);
+    }
+
+    public Collection<RegistrationJobStatus> list() {
+        evictExpired();
+        return jobs.values().stream().map(RegistrationJob::status).toList();
+    }
+
+    public Optional<RegistrationJobStatus> cancel(String id) {
+        var job = jobs.get(id);
+        if (job == null) {
+            return Optional.empty();
+        }
+        if (job.state == RegistrationJobState.RUNNING) {
+            job.finish(RegistrationJobState.CANCELLED);
+            if (job.subscription != null) {
+                job.subscription.dispose();
+            }
+            checkpoint(job);
+        }
+        return Optional.of(job.status());
+    }
+
+    private void run(RegistrationJob job) {
+        job.subscription = registrationReader.readPages(null, AzureRegistrationReader.MAX_PAGE_SIZE, job.continuationToken)
+                .concatMap(page -> processPage(job, page), 1)
+                .subscribe(
+                        null,
+                        error -> {
+                            log.error("Registration job {} failed", job.id, error);
+                            job.finish(RegistrationJobState.FAILED);
+                            checkpoint(job);
+                        },
+                        () -> {
+                            job.continuationToken = null;
+                            job.finish(RegistrationJobState.COMPLETED);
+                            checkpoint(job);
+                            log.info("Registration job {} completed: {}", job.id, job.status());
+                        });
+    }
+
+    private Mono<Void> processPage(RegistrationJob job, CollectionResult page) {
+        return Flux.fromIterable(page.getRegistrations())
+                .flatMap(registration -> apply(job, registration), concurrency)
+                .then(Mono.fromRunnable(() -> {
+                    job.continuationToken = page.getContinuationToken();
+                    checkpoint(job);
+                }));
+    }
+
+    private Mono<Registration> apply(RegistrationJob job, Registration registration) {
+        Mono<Registration> call = switch (job.type) {
+            case RETAG -> {
+                registration.setTags(job.tags);
+                yield hubGateway.call(hub -> hub.updateRegistration(registration));
+            }
+            case MIGRATE_TO_TEMPLATE -> templateConverter.toTemplate(registration)
+                    .map(template -> hubGateway.call(hub -> hub.upsertRegistration(template)))
+                    .orElse(null);
+        };
+        if (call == null) {
+            job.skipped.incrementAndGet();
+            return Mono.empty();
+        }
+        return call
+                .retryWhen(Retry.backoff(maxRetries, Duration.ofMillis(200)))
+                .doOnNext(updated -> job.updated.incrementAndGet())
+                .onErrorResume(e -> {
+                    log.warn("Registration job {} could not update registration {}", job.id, registration.getRegistrationId(), e);
+                    job.failed.incrementAndGet();
+                    return Mono.empty();
+                });
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> {
+            if (!isExpired(job, now)) {
+                return false;
+            }
+            deleteCheckpoint(job);
+            log.info("Evicted {} registration job {} ({})", job.state, job.id, job.type);
+            return true;
+        });
+    }
+
+    private boolean isExpired(RegistrationJob job, long now) {
+        return job.finishedAt > 0 && now - job.finishedAt > retentionMs;
+    }
+
+    private synchronized void deleteCheckpoint(RegistrationJob job) {
+        try {
+            Files.deleteIfExists(directory.resolve(job.id + ".json"));
+        } catch (IOException e) {
+            log.warn("Could not delete the checkpoint of registration job {}", job.id, e);
+        }
+    }
+
+    private synchronized void checkpoint(RegistrationJob job) {
+        try {
+            Files.createDirectories(directory);
+            var file = directory.resolve(job.id + ".json");
+            var tmp = directory.resolve(job.id + ".json.tmp");
+            Files.writeString(tmp, GSON.toJson(job.status()));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
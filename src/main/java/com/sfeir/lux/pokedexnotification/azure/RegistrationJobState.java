@@ -0,0 +1,8 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+public enum RegistrationJobState {
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
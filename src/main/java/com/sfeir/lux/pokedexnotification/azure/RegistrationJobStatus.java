@@ -0,0 +1,23 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import java.util.Set;
+
+/**
+ * Progress of a bulk registration job, also used as its on-disk checkpoint.
+ *
+ * @param continuationToken hub continuation token of the next page to process, null for the first page
+ * @param processed         registrations handled so far, whether updated, skipped or failed
+ */
+public record RegistrationJobStatus(String id,
+                                    RegistrationJobType type,
+                                    Set<String> tags,
+                                    RegistrationJobState state,
+                                    String continuationToken,
+                                    long processed,
+                                    long updated,
+                                    long skipped,
+                                    long failed,
+                                    long createdAt,
+                                    long updatedAt,
+                                    double registrationsPerSecond) {
+}
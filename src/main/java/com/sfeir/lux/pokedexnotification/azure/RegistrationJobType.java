@@ -0,0 +1,12 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+public enum RegistrationJobType {
+    /**
+     * Replaces the tags of every registration.
+     */
+    RETAG,
+    /**
+     * Converts every Apple and FCM v1 registration to its template variant.
+     */
+    MIGRATE_TO_TEMPLATE
+}
@@ -0,0 +1,20 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import com.windowsazure.messaging.AppleRegistration;
+import com.windowsazure.messaging.FcmV1Registration;
+import com.windowsazure.messaging.Registration;
+
+/**
+ * Platform of a hub registration, template registrations included.
+ */
+public enum RegistrationPlatform {
+    APPLE,
+    FCM;
+
+    public boolean matches(Registration registration) {
+        return switch (this) {
+            case APPLE -> registration instanceof AppleRegistration;
+            case FCM -> registration instanceof FcmV1Registration;
+        };
+    }
+}
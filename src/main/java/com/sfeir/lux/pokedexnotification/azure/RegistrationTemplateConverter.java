@@ -0,0 +1,60 @@
+package com.sfeir.lux.pokedexnotification.azure;
+
+import com.windowsazure.messaging.AppleRegistration;
+import com.windowsazure.messaging.AppleTemplateRegistration;
+import com.windowsazure.messaging.FcmV1Registration;
+import com.windowsazure.messaging.FcmV1TemplateRegistration;
+import com.windowsazure.messaging.Registration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Converts native Apple and FCM v1 registrations to their template variant, keeping their id and tags.
+ */
+@Component
+public class RegistrationTemplateConverter {
+
+    private final String azureApnsTemplate;
+    private final String azureFcmTemplate;
+
+    public RegistrationTemplateConverter(@Value("${azure.apns.template}") String azureApnsTemplate, @Value("${azure.fcm.template}") String azureFcmTemplate) {
+        this.azureApnsTemplate = azureApnsTemplate;
+        this.azureFcmTemplate = azureFcmTemplate;
+    }
+
+    /**
+     * @return the template registration to upsert, empty if the registration is already a template or has no template variant
+     */
+    public Optional<Registration> toTemplate(Registration registration) {
+        // @ registration, a tag starting with a $ is add, but we can't update a tag starting with a $
+        var tags = registration.getTags().stream().filter(s -> !s.startsWith("$")).collect(Collectors.toSet());
+        Registration template;
+        switch (registration) {
+            case AppleTemplateRegistration ignored:
+                return Optional.empty();
+            case FcmV1TemplateRegistration ignored:
+                return Optional.empty();
+            case AppleRegistration appleRegistration:
+                template = new AppleTemplateRegistration(
+                        registration.getRegistrationId(),
+                        appleRegistration.getDeviceToken(),
+                        azureApnsTemplate
+                );
+                break;
+            case FcmV1Registration fcmV1Registration:
+                template = new FcmV1TemplateRegistration(
+                        registration.getRegistrationId(),
+                        fcmV1Registration.getFcmRegistrationId(),
+                        azureFcmTemplate
+                );
+                break;
+            default:
+                return Optional.empty();
+        }
+        template.setTags(tags);
+        return Optional.of(template);
+    }
+}
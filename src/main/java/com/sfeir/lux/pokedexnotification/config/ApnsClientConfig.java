@@ -0,0 +1,39 @@
+package com.sfeir.lux.pokedexnotification.config;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.util.ResourceUtils;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+@Configuration
+@Profile("!loadtest")
+public class ApnsClientConfig {
+
+    /**
+     * A single HTTP/2 connection is capped by the concurrent streams APNs allows on it, {@code apns.connections}
+     * spreads the streams of the fan-out over a pool of connections instead.
+     * <p>
+     * Lazy, loading the signing key and building the client is left to the first send or the provider warm-up.
+     */
+    @Bean(destroyMethod = "close")
+    @Lazy
+    public ApnsClient apnsClient(@Value("${apns.keyId}") String keyId, @Value("${apns.teamId}") String teamId,
+                                 @Value("${apns.production:false}") boolean production,
+                                 @Value("${apns.connections:4}") int connections) throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return new ApnsClientBuilder()
+                .setApnsServer(production ? ApnsClientBuilder.PRODUCTION_APNS_HOST : ApnsClientBuilder.DEVELOPMENT_APNS_HOST)
+                .setConcurrentConnections(connections)
+                .setSigningKey(ApnsSigningKey.loadFromPkcs8File(ResourceUtils.getFile(String.format("classpath:AuthKey_%s_Pushy.p8", keyId)),
+                        teamId, keyId))
+                .build();
+    }
+}
@@ -0,0 +1,32 @@
+package com.sfeir.lux.pokedexnotification.config;
+
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+@Configuration
+public class DeviceRegistryConfig {
+
+    @Bean(destroyMethod = "close")
+    public DeviceRegistry deviceRegistry(@Value("${devices.log:data/devices.log}") Path log,
+                                         @Qualifier("fcmTokens") List<String> fcmTokens,
+                                         @Qualifier("azureFcmTokens") List<String> azureFcmTokens,
+                                         @Value("${apns.device}") String apnsDevice) throws IOException {
+        var registry = DeviceRegistry.open(log);
+        // the configured devices only seed an empty registry, afterwards devices are managed through /devices
+        if (registry.count(DevicePlatform.FCM) + registry.count(DevicePlatform.AZURE) + registry.count(DevicePlatform.APNS) == 0) {
+            fcmTokens.forEach(token -> registry.register(DevicePlatform.FCM, token, Set.of("pokemon")));
+            azureFcmTokens.forEach(token -> registry.register(DevicePlatform.AZURE, token, Set.of("pokemon")));
+            registry.register(DevicePlatform.APNS, apnsDevice, Set.of("pokemon"));
+        }
+        return registry;
+    }
+}
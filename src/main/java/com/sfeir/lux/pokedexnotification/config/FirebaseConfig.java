@@ -0,0 +1,45 @@
+package com.sfeir.lux.pokedexnotification.config;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.messaging.FirebaseMessaging;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.util.ResourceUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Firebase is initialised on first use, or in the background by the provider warm-up, never while the context
+ * starts: inject an {@code ObjectFactory<FirebaseMessaging>} and get it at send time.
+ */
+@Configuration
+public class FirebaseConfig {
+
+    @Bean
+    @Lazy
+    @Profile("!loadtest")
+    public FirebaseOptions firebaseOptions() throws IOException {
+        try (FileInputStream refreshToken = new FileInputStream(ResourceUtils.getFile("classpath:firebase-adminsdk.json"))) {
+            return FirebaseOptions.builder()
+                    .setCredentials(GoogleCredentials.fromStream(refreshToken))
+                    .build();
+        }
+    }
+
+    @Bean
+    @Lazy
+    public FirebaseApp firebaseApp(FirebaseOptions firebaseOptions) {
+        return FirebaseApp.initializeApp(firebaseOptions);
+    }
+
+    @Bean
+    @Lazy
+    public FirebaseMessaging firebaseMessaging(FirebaseApp firebaseApp) {
+        return FirebaseMessaging.getInstance(firebaseApp);
+    }
+}
@@ -0,0 +1,39 @@
+package com.sfeir.lux.pokedexnotification.config;
+
+import com.sfeir.lux.pokedexnotification.interest.InterestIndex;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Configuration
+public class InterestIndexConfig {
+
+    /**
+     * Groups are configured as {@code interests.groups.<name>: <comma separated species ids>}.
+     */
+    @Bean(destroyMethod = "close")
+    public InterestIndex interestIndex(DeviceRegistry deviceRegistry, Environment environment,
+                                       @Value("${interests.log:data/interests.log}") Path log,
+                                       @Value("${interests.default-all:true}") boolean defaultAll) throws IOException {
+        Map<String, Set<Integer>> groups = new HashMap<>();
+        Binder.get(environment).bind("interests.groups", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of())
+                .forEach((name, species) -> groups.put(name, Arrays.stream(species.split(","))
+                        .map(String::trim)
+                        .map(Integer::valueOf)
+                        .collect(Collectors.toSet())));
+        return InterestIndex.open(deviceRegistry, log, groups, defaultAll);
+    }
+}
@@ -1,27 +1,71 @@
 package com.sfeir.lux.pokedexnotification.config;
 
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.Http2AllocationStrategy;
 import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import reactor.netty.tcp.SslProvider;
 
+import java.time.Duration;
+
 
 @Configuration
 public class WebClientConfig {
 
+    /**
+     * HTTP/2 multiplexes the requests over a few long-lived connections, so the pool is sized in connections and
+     * streams per connection rather than in connections only. Pool and client metrics are published to the Micrometer
+     * global registry, which the actuator exposes.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider webClientConnectionProvider(@Value("${webclient.pool.max-connections:4}") int maxConnections,
+                                                          @Value("${webclient.pool.max-streams-per-connection:500}") long maxStreams,
+                                                          @Value("${webclient.pool.max-idle-time-ms:300000}") long maxIdleTimeMs,
+                                                          @Value("${webclient.pool.max-life-time-ms:3600000}") long maxLifeTimeMs,
+                                                          @Value("${webclient.pool.pending-acquire-timeout-ms:5000}") long pendingAcquireTimeoutMs,
+                                                          @Value("${webclient.pool.pending-acquire-max-count:10000}") int pendingAcquireMaxCount) {
+        return ConnectionProvider.builder("apns")
+                .allocationStrategy(Http2AllocationStrategy.builder()
+                        .minConnections(1)
+                        .maxConnections(maxConnections)
+                        .maxConcurrentStreams(maxStreams)
+                        .build())
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofSeconds(30))
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .metrics(true)
+                .build();
+    }
+
     @Bean
-    public WebClient webClient() {
-        HttpClient httpClient = HttpClient.create()
-                .secure(sslContextSpec -> sslContextSpec.sslContext(SslProvider.defaultClientProvider().getSslContext()))
-                .protocol(HttpProtocol.H2)
-                .wiretap(true);  // This enables logging of the client-server communication. Remove it in production.
+    public WebClient webClient(ConnectionProvider webClientConnectionProvider,
+                               @Value("${webclient.connect-timeout-ms:5000}") int connectTimeoutMs,
+                               @Value("${webclient.response-timeout-ms:10000}") long responseTimeoutMs,
+                               @Value("${webclient.wiretap:false}") boolean wiretap,
+                               @Value("${webclient.cleartext:false}") boolean cleartext) {
+        HttpClient httpClient = HttpClient.create(webClientConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs))
+                // the device token is part of the path, tag the metrics with the route only to keep them bounded
+                .metrics(true, uri -> uri.startsWith("/3/device/") ? "/3/device/{token}" : uri)
+                // logs every frame of the client-server communication, for debugging only
+                .wiretap(wiretap);
+        // cleartext HTTP/2 is only meant for local stand-ins, APNs requires TLS
+        httpClient = cleartext
+                ? httpClient.protocol(HttpProtocol.H2C)
+                : httpClient.secure(sslContextSpec -> sslContextSpec.sslContext(SslProvider.defaultClientProvider().getSslContext()))
+                .protocol(HttpProtocol.H2);
 
         return WebClient.builder()
                 .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .build();
     }
 }
-
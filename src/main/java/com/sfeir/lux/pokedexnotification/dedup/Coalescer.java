@@ -0,0 +1,62 @@
+package com.sfeir.lux.pokedexnotification.dedup;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Collapses the updates submitted for a key during a window into one send of the latest value.
+ * <p>
+ * The first update of a key opens the window, the following ones replace its value, and when the window closes the
+ * latest value is sent once. Every update of the window completes with the result of that send. The pending map
+ * holds at most one entry per key with an open window.
+ */
+public class Coalescer<V, R> {
+
+    private final Duration window;
+    private final Function<V, Mono<R>> send;
+    private final Map<String, Pending<V, R>> pending = new HashMap<>();
+
+    public Coalescer(Duration window, Function<V, Mono<R>> send) {
+        this.window = window;
+        this.send = send;
+    }
+
+    public Mono<R> submit(String key, V value) {
+        return Mono.defer(() -> {
+            Pending<V, R> update;
+            boolean opened = false;
+            synchronized (pending) {
+                update = pending.get(key);
+                if (update == null) {
+                    update = new Pending<>();
+                    pending.put(key, update);
+                    opened = true;
+                }
+                update.value = value;
+            }
+            if (opened) {
+                Mono.delay(window).subscribe(tick -> flush(key));
+            }
+            return update.result.asMono();
+        });
+    }
+
+    private void flush(String key) {
+        Pending<V, R> update;
+        synchronized (pending) {
+            update = pending.remove(key);
+        }
+        Mono.defer(() -> send.apply(update.value))
+                .subscribe(update.result::tryEmitValue, update.result::tryEmitError, update.result::tryEmitEmpty);
+    }
+
+    private static final class Pending<V, R> {
+        private final Sinks.One<R> result = Sinks.one();
+        private V value;
+    }
+}
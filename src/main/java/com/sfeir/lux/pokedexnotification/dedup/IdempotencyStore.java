@@ -0,0 +1,127 @@
+package com.sfeir.lux.pokedexnotification.dedup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the notification triggers of the last {@code notifications.dedup.window-ms}: a trigger with the key of
+ * a remembered one gets the result of the first send, or waits for it, instead of sending again.
+ * <p>
+ * Entries all live for the same window, so insertion order is expiry order and expired entries are dropped from the
+ * head. Above {@code notifications.dedup.max-entries} the oldest entries are dropped before they expire, which
+ * bounds the memory at the cost of letting some duplicates through during a spike. A failed send is forgotten so a
+ * retry is sent again.
+ */
+@Component
+public class IdempotencyStore {
+
+    private final long windowNanos;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final MeterRegistry meterRegistry;
+    // endpoint -> its deduplicated counter, endpoints are the constants of the controllers
+    private final Map<String, Counter> deduplicated = new ConcurrentHashMap<>();
+
+    public IdempotencyStore(@Value("${notifications.dedup.window-ms:2000}") long windowMs,
+                            @Value("${notifications.dedup.max-entries:10000}") int maxEntries,
+                            MeterRegistry meterRegistry) {
+        this.windowNanos = Duration.ofMillis(windowMs).toNanos();
+        this.maxEntries = maxEntries;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param idempotencyKey key chosen by the caller, if any
+     * @param parameters     request parameters identifying a trigger when the caller gave no key
+     */
+    public static String key(String endpoint, String idempotencyKey, Object... parameters) {
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            return endpoint + "#" + idempotencyKey;
+        }
+        var key = new StringBuilder(endpoint);
+        for (Object parameter : parameters) {
+            key.append('|').append(parameter);
+        }
+        return key.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String key, Supplier<Mono<T>> send) {
+        return Mono.defer(() -> {
+            long now = System.nanoTime();
+            Mono<T> existing;
+            synchronized (entries) {
+                evict(now);
+                var entry = entries.get(key);
+                if (entry == null) {
+                    var created = new Entry(now + windowNanos);
+                    created.result = Mono.defer(send)
+                            .doOnError(e -> forget(key, created))
+                            .cache();
+                    entries.put(key, created);
+                    return (Mono<T>) created.result;
+                }
+                existing = (Mono<T>) entry.result;
+            }
+            deduplicated.computeIfAbsent(key.substring(0, endpointLength(key)), endpoint -> Counter.builder("notification.deduplicated")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry)).increment();
+            return existing;
+        });
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // caller must hold the entries lock
+    private void evict(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        int size = entries.size();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.expiresAt - now > 0 && size < maxEntries) {
+                return;
+            }
+            iterator.remove();
+            size--;
+        }
+    }
+
+    private void forget(String key, Entry entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private static int endpointLength(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '#' || c == '|') {
+                return i;
+            }
+        }
+        return key.length();
+    }
+
+    private static final class Entry {
+        private final long expiresAt;
+        private Mono<?> result;
+
+        private Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+}
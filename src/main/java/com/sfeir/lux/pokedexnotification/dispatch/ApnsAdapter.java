@@ -0,0 +1,65 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.apns.ApnsDeliveryOutcome;
+import com.sfeir.lux.pokedexnotification.apns.ApnsFanOutService;
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.payload.PayloadPlatform;
+import com.sfeir.lux.pokedexnotification.payload.RenderedPayload;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * APNs devices of the registry, one call per device over the {@code dispatch.apns.transport} transport.
+ */
+@Component
+public class ApnsAdapter implements ProviderAdapter<RenderedPayload> {
+
+    private final DeviceRegistry deviceRegistry;
+    private final ApnsFanOutService fanOutService;
+    private final DeliveryFeedback deliveryFeedback;
+    private final NotificationPayloads payloads;
+    private final ApnsFanOutService.Transport transport;
+
+    public ApnsAdapter(DeviceRegistry deviceRegistry, ApnsFanOutService fanOutService, DeliveryFeedback deliveryFeedback, NotificationPayloads payloads,
+                       @Value("${dispatch.apns.transport:PUSHY}") ApnsFanOutService.Transport transport) {
+        this.deviceRegistry = deviceRegistry;
+        this.fanOutService = fanOutService;
+        this.deliveryFeedback = deliveryFeedback;
+        this.payloads = payloads;
+        this.transport = transport;
+    }
+
+    @Override
+    public DevicePlatform platform() {
+        return DevicePlatform.APNS;
+    }
+
+    @Override
+    public Flux<List<String>> resolveTargets(String topic) {
+        return Flux.fromStream(() -> deviceRegistry.stream(DevicePlatform.APNS, topic)).map(List::of);
+    }
+
+    @Override
+    public RenderedPayload render(String pokemon) {
+        return payloads.render(transport == ApnsFanOutService.Transport.PUSHY ? PayloadPlatform.PUSHY : PayloadPlatform.APNS, pokemon);
+    }
+
+    @Override
+    public Mono<DeliveryOutcome> send(List<String> targets, RenderedPayload payload) {
+        var device = targets.get(0);
+        return fanOutService.send(device, payload, transport)
+                .doOnNext(deliveryFeedback::onApnsOutcome)
+                .map(outcome -> outcome.status() == ApnsDeliveryOutcome.Status.ACCEPTED
+                        ? DeliveryOutcome.delivered(DevicePlatform.APNS, device, 1)
+                        : new DeliveryOutcome(DevicePlatform.APNS, device, 1, 0, 1,
+                        Map.of(outcome.status() == ApnsDeliveryOutcome.Status.REJECTED ? outcome.reason() : "TransportError", 1L)));
+    }
+}
@@ -0,0 +1,76 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.azure.AzureHubGateway;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.payload.PayloadPlatform;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.windowsazure.messaging.Notification;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Notification hub devices, reached through their tag: one FCM and one APNs notification per topic, the hub does
+ * the fan-out.
+ */
+@Component
+public class AzureAdapter implements ProviderAdapter<AzureAdapter.HubPayload> {
+
+    public record HubPayload(String fcm, String apns) {
+    }
+
+    private final AzureHubGateway hubGateway;
+    private final NotificationPayloads payloads;
+
+    public AzureAdapter(AzureHubGateway hubGateway, NotificationPayloads payloads) {
+        this.hubGateway = hubGateway;
+        this.payloads = payloads;
+    }
+
+    @Override
+    public DevicePlatform platform() {
+        return DevicePlatform.AZURE;
+    }
+
+    @Override
+    public Flux<List<String>> resolveTargets(String topic) {
+        return Flux.just(List.of(topic != null ? topic : "pokemon"));
+    }
+
+    @Override
+    public HubPayload render(String pokemon) {
+        return new HubPayload(payloads.render(PayloadPlatform.AZURE_FCM, pokemon).json(), payloads.render(PayloadPlatform.AZURE_APNS, pokemon).json());
+    }
+
+    @Override
+    public Mono<DeliveryOutcome> send(List<String> targets, HubPayload payload) {
+        var tag = targets.get(0);
+        var fcm = send(tag, Notification.createFcmV1Notification(payload.fcm()));
+        var apns = send(tag, Notification.createAppleNotification(payload.apns()));
+        return Flux.merge(fcm, apns)
+                .reduce((first, second) -> new DeliveryOutcome(DevicePlatform.AZURE, tag, 2, first.delivered() + second.delivered(), first.failed() + second.failed(),
+                        mergeReasons(first.reasons(), second.reasons())));
+    }
+
+    // both sends may fail for the same reason, or for different ones
+    private static Map<String, Long> mergeReasons(Map<String, Long> first, Map<String, Long> second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return first.isEmpty() ? second : first;
+        }
+        Map<String, Long> merged = new HashMap<>(first);
+        second.forEach((reason, count) -> merged.merge(reason, count, Long::sum));
+        return merged;
+    }
+
+    private Mono<DeliveryOutcome> send(String tag, Notification notification) {
+        return hubGateway.send("send-notification", hub -> hub.sendNotification(notification, Set.of(tag)))
+                .map(outcome -> DeliveryOutcome.delivered(DevicePlatform.AZURE, tag, 1))
+                .onErrorResume(e -> Mono.just(DeliveryOutcome.failed(DevicePlatform.AZURE, tag, 1, SendMetrics.Outcome.error(e).reason())));
+    }
+}
@@ -0,0 +1,22 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+
+import java.util.Map;
+
+/**
+ * Result of one provider call of a dispatch, which may reach several targets.
+ *
+ * @param target  device token, or first token of a multicast chunk, or hub tag
+ * @param reasons number of undelivered notifications per rejection reason or error
+ */
+public record DeliveryOutcome(DevicePlatform platform, String target, long targets, long delivered, long failed, Map<String, Long> reasons) {
+
+    public static DeliveryOutcome delivered(DevicePlatform platform, String target, long targets) {
+        return new DeliveryOutcome(platform, target, targets, targets, 0, Map.of());
+    }
+
+    public static DeliveryOutcome failed(DevicePlatform platform, String target, long targets, String reason) {
+        return new DeliveryOutcome(platform, target, targets, 0, targets, Map.of(reason, targets));
+    }
+}
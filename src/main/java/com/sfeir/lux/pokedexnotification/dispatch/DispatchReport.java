@@ -0,0 +1,30 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merged outcomes of one dispatch, per platform.
+ */
+public record DispatchReport(String pokemon, Map<DevicePlatform, PlatformReport> platforms, Duration elapsed) {
+
+    /**
+     * @param calls   number of provider calls
+     * @param reasons number of undelivered notifications per rejection reason or error
+     */
+    public record PlatformReport(long calls, long targets, long delivered, long failed, Map<String, Long> reasons) {
+
+        PlatformReport merge(DeliveryOutcome outcome) {
+            var merged = new HashMap<>(reasons);
+            outcome.reasons().forEach((reason, count) -> merged.merge(reason, count, Long::sum));
+            return new PlatformReport(calls + 1, targets + outcome.targets(), delivered + outcome.delivered(), failed + outcome.failed(), merged);
+        }
+
+        static PlatformReport empty() {
+            return new PlatformReport(0, 0, 0, 0, Map.of());
+        }
+    }
+}
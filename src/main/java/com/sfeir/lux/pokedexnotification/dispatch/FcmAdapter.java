@@ -0,0 +1,48 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.fcm.FcmMessages;
+import com.sfeir.lux.pokedexnotification.fcm.FcmMulticastService;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * FCM devices of the registry, one multicast call per chunk of {@link FcmMulticastService#MAX_TOKENS_PER_MULTICAST} tokens.
+ */
+@Component
+public class FcmAdapter implements ProviderAdapter<String> {
+
+    private final DeviceRegistry deviceRegistry;
+    private final FcmMulticastService multicastService;
+
+    public FcmAdapter(DeviceRegistry deviceRegistry, FcmMulticastService multicastService) {
+        this.deviceRegistry = deviceRegistry;
+        this.multicastService = multicastService;
+    }
+
+    @Override
+    public DevicePlatform platform() {
+        return DevicePlatform.FCM;
+    }
+
+    @Override
+    public Flux<List<String>> resolveTargets(String topic) {
+        return Flux.fromStream(() -> deviceRegistry.stream(DevicePlatform.FCM, topic)).buffer(FcmMulticastService.MAX_TOKENS_PER_MULTICAST);
+    }
+
+    // the message is built per chunk, the Pokemon is all the chunks share
+    @Override
+    public String render(String pokemon) {
+        return pokemon;
+    }
+
+    @Override
+    public Mono<DeliveryOutcome> send(List<String> targets, String pokemon) {
+        return multicastService.send(targets, tokens -> FcmMessages.wildPokemonMulticast(pokemon).addAllTokens(tokens).build())
+                .map(report -> new DeliveryOutcome(DevicePlatform.FCM, targets.get(0), report.tokens(), report.success(), report.failure(), report.errorCodes()));
+    }
+}
@@ -0,0 +1,74 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Sends one notification to every platform at once: the targets of each {@link ProviderAdapter} are resolved and
+ * routed to their adapter as they come, and all the provider calls share the same {@code dispatch.concurrency}
+ * budget, so a slow provider holds its share of the budget instead of delaying the others.
+ */
+@Service
+public class NotificationDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    private final Map<DevicePlatform, ProviderAdapter<?>> adapters;
+    private final int concurrency;
+
+    public NotificationDispatcher(List<ProviderAdapter<?>> adapters, @Value("${dispatch.concurrency:256}") int concurrency) {
+        this.adapters = adapters.stream().collect(Collectors.toMap(ProviderAdapter::platform, Function.identity(), (first, second) -> first, () -> new EnumMap<>(DevicePlatform.class)));
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param platforms platforms to reach, every platform if empty
+     */
+    public Mono<DispatchReport> dispatch(String pokemon, String topic, Collection<DevicePlatform> platforms) {
+        var wildPokemon = NotificationPayloads.pokemonOrRandom(pokemon);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return outcomes(wildPokemon, topic, platforms)
+                    .collect(() -> new EnumMap<DevicePlatform, DispatchReport.PlatformReport>(DevicePlatform.class),
+                            (reports, outcome) -> reports.merge(outcome.platform(), DispatchReport.PlatformReport.empty().merge(outcome), (report, ignored) -> report.merge(outcome)))
+                    .map(reports -> new DispatchReport(wildPokemon, reports, Duration.ofNanos(System.nanoTime() - start)))
+                    .doOnNext(report -> log.info("Dispatched {} to {} in {} ms", report.pokemon(), report.platforms().keySet(), report.elapsed().toMillis()));
+        });
+    }
+
+    /**
+     * Outcome of each provider call, in completion order.
+     */
+    public Flux<DeliveryOutcome> outcomes(String pokemon, String topic, Collection<DevicePlatform> platforms) {
+        var wildPokemon = NotificationPayloads.pokemonOrRandom(pokemon);
+        var selected = platforms == null || platforms.isEmpty() ? adapters.keySet() : Set.copyOf(platforms);
+        return Flux.fromIterable(adapters.values())
+                .filter(adapter -> selected.contains(adapter.platform()))
+                .flatMap(adapter -> deliveries(adapter, wildPokemon, topic))
+                .flatMap(Supplier::get, concurrency);
+    }
+
+    // the payload is rendered once per adapter, each call only carries its targets
+    private static <P> Flux<Supplier<Mono<DeliveryOutcome>>> deliveries(ProviderAdapter<P> adapter, String pokemon, String topic) {
+        return Mono.fromSupplier(() -> adapter.render(pokemon))
+                .flatMapMany(payload -> adapter.resolveTargets(topic)
+                        .<Supplier<Mono<DeliveryOutcome>>>map(targets -> () -> adapter.send(targets, payload)
+                                .onErrorResume(e -> Mono.just(DeliveryOutcome.failed(adapter.platform(), targets.get(0), targets.size(), e.getClass().getSimpleName())))));
+    }
+}
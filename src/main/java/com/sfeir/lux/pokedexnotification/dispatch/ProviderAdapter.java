@@ -0,0 +1,29 @@
+package com.sfeir.lux.pokedexnotification.dispatch;
+
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * One push provider, seen from the {@link NotificationDispatcher}.
+ *
+ * @param <P> payload of the provider, rendered once per dispatch
+ */
+public interface ProviderAdapter<P> {
+
+    DevicePlatform platform();
+
+    /**
+     * @return the targets of each provider call needed to reach the topic
+     */
+    Flux<List<String>> resolveTargets(String topic);
+
+    P render(String pokemon);
+
+    /**
+     * Must not error, a failure is reported as an outcome.
+     */
+    Mono<DeliveryOutcome> send(List<String> targets, P payload);
+}
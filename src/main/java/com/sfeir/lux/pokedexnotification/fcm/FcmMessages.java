@@ -0,0 +1,43 @@
+package com.sfeir.lux.pokedexnotification.fcm;
+
+import com.google.firebase.messaging.ApnsConfig;
+import com.google.firebase.messaging.Aps;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MulticastMessage;
+import com.google.firebase.messaging.Notification;
+
+public final class FcmMessages {
+
+    private FcmMessages() {
+    }
+
+    /**
+     * "Wild Pokemon" message, without its target.
+     */
+    public static Message.Builder wildPokemon(String pokemon) {
+        return Message.builder()
+                .setApnsConfig(ApnsConfig.builder().setAps(Aps.builder().setContentAvailable(true).setBadge(1).build()).build())
+                .setNotification(
+                        Notification.builder()
+                                .setTitle("A wild pokemon appears !")
+                                .setBody("Click to see who it is")
+                                .build()
+                )
+                .putData("pokemon", pokemon);
+    }
+
+    /**
+     * "Wild Pokemon" multicast message, without its tokens.
+     */
+    public static MulticastMessage.Builder wildPokemonMulticast(String pokemon) {
+        return MulticastMessage.builder()
+                .setApnsConfig(ApnsConfig.builder().setAps(Aps.builder().setContentAvailable(true).setBadge(1).build()).build())
+                .setNotification(
+                        Notification.builder()
+                                .setTitle("A wild pokemon appears !")
+                                .setBody("Click to see who it is")
+                                .build()
+                )
+                .putData("pokemon", pokemon);
+    }
+}
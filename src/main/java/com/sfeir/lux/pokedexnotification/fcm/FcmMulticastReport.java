@@ -0,0 +1,13 @@
+package com.sfeir.lux.pokedexnotification.fcm;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Merged result of every {@code BatchResponse} of a chunked multicast.
+ *
+ * @param pruned     tokens removed from the registry because FCM reported them as permanently invalid
+ * @param errorCodes number of failed tokens per FCM error code
+ */
+public record FcmMulticastReport(long tokens, long chunks, long success, long failure, long pruned, Map<String, Long> errorCodes, Duration elapsed) {
+}
@@ -0,0 +1,201 @@
+package com.sfeir.lux.pokedexnotification.fcm;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.firebase.messaging.BatchResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.google.firebase.messaging.MulticastMessage;
+import com.google.firebase.messaging.SendResponse;
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.governor.RateGovernor;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.stream.TargetResult;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Sends a multicast message to any number of tokens by splitting them in chunks FCM accepts
+ * and sending the chunks concurrently with {@code sendEachForMulticastAsync}.
+ * <p>
+ * A chunk takes one permit of the FCM {@link RateGovernor} per token, and a chunk with a {@code QUOTA_EXCEEDED}
+ * error slows the governor down.
+ */
+@Service
+public class FcmMulticastService {
+
+    // FCM refuses a multicast message with more than 500 tokens
+    public static final int MAX_TOKENS_PER_MULTICAST = 500;
+
+    private final ObjectFactory<FirebaseMessaging> messaging;
+    private final DeliveryFeedback deliveryFeedback;
+    private final RateGovernor governor;
+    private final SendMetrics metrics;
+    private final int chunkSize;
+    private final int concurrency;
+
+    public FcmMulticastService(ObjectFactory<FirebaseMessaging> messaging, DeliveryFeedback deliveryFeedback, TransportGovernors governors, SendMetrics metrics,
+                               @Value("${fcm.multicast.chunk-size:500}") int chunkSize, @Value("${fcm.multicast.concurrency:8}") int concurrency) {
+        if (chunkSize <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("FCM multicast chunk size and concurrency must be positive");
+        }
+        this.messaging = messaging;
+        this.deliveryFeedback = deliveryFeedback;
+        this.governor = governors.get(NotificationProvider.FCM);
+        this.metrics = metrics;
+        this.chunkSize = Math.min(chunkSize, MAX_TOKENS_PER_MULTICAST);
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param messageFactory builds the message of one chunk, the given tokens must be added to it
+     */
+    public Mono<FcmMulticastReport> send(List<String> tokens, Function<List<String>, MulticastMessage> messageFactory) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            int chunks = (tokens.size() + chunkSize - 1) / chunkSize;
+            return Flux.range(0, chunks)
+                    .map(i -> tokens.subList(i * chunkSize, Math.min((i + 1) * chunkSize, tokens.size())))
+                    .flatMap(chunk -> sendChunk(messageFactory.apply(chunk), chunk), concurrency)
+                    .collect(Aggregator::new, this::aggregate)
+                    .map(aggregator -> aggregator.toReport(tokens.size(), chunks, Duration.ofNanos(System.nanoTime() - start)));
+        });
+    }
+
+    /**
+     * Same as {@link #send} but emits the result of each token as soon as its chunk completes, without collecting them.
+     */
+    public Flux<TargetResult> stream(Flux<String> tokens, Function<List<String>, MulticastMessage> messageFactory) {
+        return tokens.buffer(chunkSize)
+                .flatMap(chunk -> sendChunk(messageFactory.apply(chunk), chunk), concurrency)
+                .flatMapIterable(this::results);
+    }
+
+    private Mono<ChunkResult> sendChunk(MulticastMessage message, List<String> tokens) {
+        return governor.throttle(tokens.size(), () -> metrics.recordBatch(SendMetrics.FCM, "send-each-for-multicast", () -> Mono.<BatchResponse>create(sink -> {
+                    ApiFuture<BatchResponse> future = messaging.getObject().sendEachForMulticastAsync(message);
+                    ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+                        @Override
+                        public void onFailure(Throwable t) {
+                            sink.error(t);
+                        }
+
+                        @Override
+                        public void onSuccess(BatchResponse result) {
+                            sink.success(result);
+                        }
+                    }, MoreExecutors.directExecutor());
+                    sink.onCancel(() -> future.cancel(false));
+                }), FcmMulticastService::outcomes))
+                .map(response -> new ChunkResult(tokens, response, null))
+                .onErrorResume(e -> Mono.just(new ChunkResult(tokens, null, e)))
+                .doOnNext(this::adjustRate);
+    }
+
+    private void adjustRate(ChunkResult result) {
+        boolean throttled = isQuotaExceeded(result.error())
+                || (result.response() != null && result.response().getResponses().stream().anyMatch(response -> isQuotaExceeded(response.getException())));
+        if (throttled) {
+            governor.onThrottled();
+        } else if (result.error() == null) {
+            governor.onSuccess();
+        }
+    }
+
+    private static boolean isQuotaExceeded(Throwable e) {
+        return e instanceof FirebaseMessagingException messagingException && messagingException.getMessagingErrorCode() == MessagingErrorCode.QUOTA_EXCEEDED;
+    }
+
+    public static Map<SendMetrics.Outcome, Long> outcomes(BatchResponse response) {
+        Map<SendMetrics.Outcome, Long> outcomes = new HashMap<>();
+        if (response.getSuccessCount() > 0) {
+            outcomes.put(SendMetrics.Outcome.success(), (long) response.getSuccessCount());
+        }
+        for (SendResponse sendResponse : response.getResponses()) {
+            if (!sendResponse.isSuccessful()) {
+                outcomes.merge(SendMetrics.Outcome.rejected(errorCode(sendResponse.getException())), 1L, Long::sum);
+            }
+        }
+        return outcomes;
+    }
+
+    private static String errorCode(Throwable e) {
+        if (e instanceof FirebaseMessagingException messagingException && messagingException.getMessagingErrorCode() != null) {
+            return messagingException.getMessagingErrorCode().name();
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    private void aggregate(Aggregator aggregator, ChunkResult result) {
+        if (result.error() != null) {
+            // the whole chunk failed, every token of it is counted as failed
+            aggregator.failure += result.tokens().size();
+            aggregator.errorCodes.merge(errorCode(result.error()), (long) result.tokens().size(), Long::sum);
+            return;
+        }
+        aggregator.success += result.response().getSuccessCount();
+        aggregator.failure += result.response().getFailureCount();
+        // responses are in the same order as the tokens of the chunk
+        List<SendResponse> responses = result.response().getResponses();
+        for (int i = 0; i < responses.size(); i++) {
+            var response = responses.get(i);
+            if (!response.isSuccessful()) {
+                aggregator.errorCodes.merge(errorCode(response.getException()), 1L, Long::sum);
+                if (deliveryFeedback.onFcmError(DevicePlatform.FCM, result.tokens().get(i), response.getException())) {
+                    aggregator.pruned++;
+                }
+            }
+        }
+    }
+
+    private List<TargetResult> results(ChunkResult result) {
+        List<TargetResult> results = new ArrayList<>(result.tokens().size());
+        if (result.error() != null) {
+            var code = errorCode(result.error());
+            result.tokens().forEach(token -> results.add(TargetResult.failed(token, 1, code)));
+            return results;
+        }
+        List<SendResponse> responses = result.response().getResponses();
+        for (int i = 0; i < responses.size(); i++) {
+            var token = result.tokens().get(i);
+            var response = responses.get(i);
+            if (response.isSuccessful()) {
+                results.add(TargetResult.sent(token, 1, response.getMessageId()));
+            } else {
+                deliveryFeedback.onFcmError(DevicePlatform.FCM, token, response.getException());
+                results.add(TargetResult.failed(token, 1, errorCode(response.getException())));
+            }
+        }
+        return results;
+    }
+
+    private record ChunkResult(List<String> tokens, BatchResponse response, Throwable error) {
+    }
+
+    private static final class Aggregator {
+        private long success;
+        private long failure;
+        private long pruned;
+        private final Map<String, Long> errorCodes = new HashMap<>();
+
+        FcmMulticastReport toReport(long tokens, long chunks, Duration elapsed) {
+            return new FcmMulticastReport(tokens, chunks, success, failure, pruned, errorCodes, elapsed);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.sfeir.lux.pokedexnotification.fcm;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.TopicManagementResponse;
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the FCM topic membership of the registry tokens in sync with FCM.
+ * <p>
+ * FCM cannot be asked who is subscribed to a topic, so the memberships FCM confirmed are kept in a registry of their
+ * own. A sync only subscribes the tokens of the topic that are not confirmed yet and unsubscribes the confirmed
+ * tokens no longer in the topic, in chunks of at most {@value #MAX_TOKENS_PER_CALL} tokens, {@code fcm.topics.concurrency}
+ * calls at a time. Tokens failing with a transient error are retried with an exponential backoff, tokens FCM reports as
+ * invalid are removed from both registries through {@link DeliveryFeedback}, so they are not tried again on every sync.
+ * <p>
+ * Managed topics are synced in the background once the application is ready, then every
+ * {@code fcm.topics.sync-interval-ms}: an unchanged topic costs a walk of the registries, no FCM call.
+ */
+@Service
+public class TopicMembershipService implements DisposableBean {
+
+    public static final int MAX_TOKENS_PER_CALL = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(TopicMembershipService.class);
+    private static final Set<String> TRANSIENT_ERRORS = Set.of("internal-error", "unknown-error");
+
+    private final ObjectFactory<FirebaseMessaging> messaging;
+    private final DeviceRegistry deviceRegistry;
+    private final DeliveryFeedback deliveryFeedback;
+    private final DeviceRegistry confirmed;
+    private final SendMetrics metrics;
+    private final List<String> managedTopics;
+    private final int chunkSize;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration syncInterval;
+    private final Map<String, Mono<TopicSyncReport>> running = new ConcurrentHashMap<>();
+    private Disposable periodicSync;
+
+    public TopicMembershipService(ObjectFactory<FirebaseMessaging> messaging, DeviceRegistry deviceRegistry, DeliveryFeedback deliveryFeedback,
+                                  SendMetrics metrics,
+                                  @Value("${fcm.topics.membership-log:data/fcm-topics.log}") Path membershipLog,
+                                  @Value("${fcm.topics.managed:pokemon}") List<String> managedTopics,
+                                  @Value("${fcm.topics.chunk-size:1000}") int chunkSize,
+                                  @Value("${fcm.topics.concurrency:4}") int concurrency,
+                                  @Value("${fcm.topics.max-attempts:5}") int maxAttempts,
+                                  @Value("${fcm.topics.base-backoff-ms:1000}") long baseBackoffMs,
+                                  @Value("${fcm.topics.sync-interval-ms:60000}") long syncIntervalMs) throws IOException {
+        this.messaging = messaging;
+        this.deviceRegistry = deviceRegistry;
+        this.deliveryFeedback = deliveryFeedback;
+        this.confirmed = DeviceRegistry.open(membershipLog);
+        this.metrics = metrics;
+        this.managedTopics = managedTopics;
+        this.chunkSize = Math.min(chunkSize, MAX_TOKENS_PER_CALL);
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = Duration.ofMillis(baseBackoffMs);
+        this.syncInterval = Duration.ofMillis(syncIntervalMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startPeriodicSync() {
+        periodicSync = Flux.interval(Duration.ZERO, syncInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> Flux.fromIterable(managedTopics).concatMap(topic -> sync(topic)
+                        .onErrorResume(e -> {
+                            log.warn("Could not sync FCM topic {}", topic, e);
+                            return Mono.empty();
+                        })))
+                .subscribe();
+    }
+
+    /**
+     * Sends the membership differences of the topic to FCM, joins the running sync of the topic if there is one.
+     */
+    public Mono<TopicSyncReport> sync(String topic) {
+        return running.computeIfAbsent(topic, t -> Mono.defer(() -> doSync(t))
+                .doFinally(signal -> running.remove(t))
+                .cache());
+    }
+
+    public TopicMembership membership(String topic) {
+        try (var desired = deviceRegistry.stream(DevicePlatform.FCM, topic);
+             var subscribed = confirmed.stream(DevicePlatform.FCM, topic)) {
+            return new TopicMembership(topic, desired.count(), subscribed.count());
+        }
+    }
+
+    private Mono<TopicSyncReport> doSync(String topic) {
+        long start = System.nanoTime();
+        var subscribe = Flux.fromStream(() -> deviceRegistry.stream(DevicePlatform.FCM, topic))
+                .filter(token -> !isConfirmed(token, topic))
+                .buffer(chunkSize)
+                .flatMap(chunk -> call(topic, chunk, true, 1), concurrency);
+        var unsubscribe = Flux.fromStream(() -> confirmed.stream(DevicePlatform.FCM, topic))
+                .filter(token -> !isDesired(token, topic))
+                // the confirmed registry is updated as chunks complete, never walk it while it changes
+                .collectList()
+                .flatMapIterable(tokens -> chunks(tokens, chunkSize))
+                .flatMap(chunk -> call(topic, chunk, false, 1), concurrency);
+        return Flux.concat(subscribe, unsubscribe)
+                .collect(() -> new Aggregator(topic), Aggregator::add)
+                .map(aggregator -> aggregator.toReport(Duration.ofNanos(System.nanoTime() - start)))
+                .doOnNext(report -> {
+                    if (report.subscribed() + report.unsubscribed() + report.failed() > 0) {
+                        log.info("Synced FCM topic {}: {} subscribed, {} unsubscribed, {} failed, {} pruned in {} ms",
+                                topic, report.subscribed(), report.unsubscribed(), report.failed(), report.pruned(), report.elapsed().toMillis());
+                    }
+                });
+    }
+
+    private Mono<ChunkResult> call(String topic, List<String> tokens, boolean subscribe, int attempt) {
+        var endpoint = subscribe ? "subscribe-to-topic" : "unsubscribe-from-topic";
+        return metrics.recordBatch(SendMetrics.FCM, endpoint, () -> Mono.<TopicManagementResponse>create(sink -> {
+                    ApiFuture<TopicManagementResponse> future = subscribe
+                            ? messaging.getObject().subscribeToTopicAsync(tokens, topic)
+                            : messaging.getObject().unsubscribeFromTopicAsync(tokens, topic);
+                    ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+                        @Override
+                        public void onFailure(Throwable t) {
+                            sink.error(t);
+                        }
+
+                        @Override
+                        public void onSuccess(TopicManagementResponse result) {
+                            sink.success(result);
+                        }
+                    }, MoreExecutors.directExecutor());
+                    sink.onCancel(() -> future.cancel(false));
+                }), TopicMembershipService::outcomes)
+                .map(response -> apply(topic, tokens, subscribe, response))
+                // the whole call failed, every token of it is retried
+                .onErrorResume(e -> Mono.just(new ChunkResult(subscribe, 0, 0, tokens, SendMetrics.Outcome.error(e).reason(), Map.of())))
+                .flatMap(result -> {
+                    if (result.retry().isEmpty() || attempt >= maxAttempts) {
+                        return Mono.just(result.giveUp());
+                    }
+                    var backoff = baseBackoff.multipliedBy(1L << Math.min(attempt - 1, 16));
+                    return Mono.delay(backoff)
+                            .then(call(topic, result.retry(), subscribe, attempt + 1))
+                            .map(result::merge);
+                });
+    }
+
+    private ChunkResult apply(String topic, List<String> tokens, boolean subscribe, TopicManagementResponse response) {
+        Set<Integer> failed = new HashSet<>();
+        List<String> retry = new ArrayList<>();
+        String retryReason = null;
+        Map<String, Long> errors = new HashMap<>();
+        long pruned = 0;
+        for (var error : response.getErrors()) {
+            var token = tokens.get(error.getIndex());
+            failed.add(error.getIndex());
+            if (TRANSIENT_ERRORS.contains(error.getReason())) {
+                retry.add(token);
+                retryReason = error.getReason();
+            } else {
+                errors.merge(error.getReason(), 1L, Long::sum);
+                if (deliveryFeedback.onFcmTopicError(token, error.getReason())) {
+                    // a dead token is subscribed to nothing, an unsubscription would fail again on every sync
+                    confirmed.unregister(DevicePlatform.FCM, token);
+                    pruned++;
+                }
+            }
+        }
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!failed.contains(i)) {
+                confirm(tokens.get(i), topic, subscribe);
+            }
+        }
+        return new ChunkResult(subscribe, tokens.size() - failed.size(), pruned, retry, retryReason, errors);
+    }
+
+    private void confirm(String token, String topic, boolean subscribed) {
+        var topics = confirmed.topics(DevicePlatform.FCM, token);
+        var updated = topics != null ? new HashSet<>(topics) : new HashSet<String>();
+        if (subscribed) {
+            updated.add(topic);
+        } else {
+            updated.remove(topic);
+        }
+        if (updated.isEmpty()) {
+            confirmed.unregister(DevicePlatform.FCM, token);
+        } else {
+            confirmed.register(DevicePlatform.FCM, token, updated);
+        }
+    }
+
+    private boolean isConfirmed(String token, String topic) {
+        var topics = confirmed.topics(DevicePlatform.FCM, token);
+        return topics != null && topics.contains(topic);
+    }
+
+    private boolean isDesired(String token, String topic) {
+        var topics = deviceRegistry.topics(DevicePlatform.FCM, token);
+        return topics != null && topics.contains(topic);
+    }
+
+    private static List<List<String>> chunks(List<String> tokens, int chunkSize) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i += chunkSize) {
+            chunks.add(tokens.subList(i, Math.min(i + chunkSize, tokens.size())));
+        }
+        return chunks;
+    }
+
+    private static Map<SendMetrics.Outcome, Long> outcomes(TopicManagementResponse response) {
+        Map<SendMetrics.Outcome, Long> outcomes = new HashMap<>();
+        if (response.getSuccessCount() > 0) {
+            outcomes.put(SendMetrics.Outcome.success(), (long) response.getSuccessCount());
+        }
+        for (var error : response.getErrors()) {
+            outcomes.merge(SendMetrics.Outcome.rejected(error.getReason()), 1L, Long::sum);
+        }
+        return outcomes;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (periodicSync != null) {
+            periodicSync.dispose();
+        }
+        confirmed.close();
+    }
+
+    /**
+     * @param desired    tokens of the topic in the device registry
+     * @param subscribed tokens FCM confirmed as subscribed to the topic
+     */
+    public record TopicMembership(String topic, long desired, long subscribed) {
+    }
+
+    /**
+     * @param failed number of tokens whose membership could not be changed, retried on the next sync
+     * @param errors number of failed tokens per FCM error reason
+     * @param pruned failed tokens FCM reported as invalid, removed from the registry
+     */
+    public record TopicSyncReport(String topic, long subscribed, long unsubscribed, long failed, long pruned, Map<String, Long> errors, Duration elapsed) {
+    }
+
+    /**
+     * @param retry       tokens that failed with a transient error, or whose whole call failed
+     * @param retryReason why the tokens to retry failed, counted as their error once the retries are exhausted
+     * @param errors      number of tokens failed for good per reason
+     * @param pruned      tokens failed for good because they are invalid
+     */
+    private record ChunkResult(boolean subscribe, long changed, long pruned, List<String> retry, String retryReason, Map<String, Long> errors) {
+
+        ChunkResult merge(ChunkResult retried) {
+            Map<String, Long> merged = new HashMap<>(errors);
+            retried.errors().forEach((reason, count) -> merged.merge(reason, count, Long::sum));
+            return new ChunkResult(subscribe, changed + retried.changed(), pruned + retried.pruned(), retried.retry(), retried.retryReason(), merged);
+        }
+
+        ChunkResult giveUp() {
+            if (retry.isEmpty()) {
+                return this;
+            }
+            Map<String, Long> merged = new HashMap<>(errors);
+            merged.merge(retryReason, (long) retry.size(), Long::sum);
+            return new ChunkResult(subscribe, changed, pruned, List.of(), null, merged);
+        }
+    }
+
+    private static final class Aggregator {
+        private final String topic;
+        private long subscribed;
+        private long unsubscribed;
+        private long failed;
+        private long pruned;
+        private final Map<String, Long> errors = new HashMap<>();
+
+        Aggregator(String topic) {
+            this.topic = topic;
+        }
+
+        void add(ChunkResult result) {
+            if (result.subscribe()) {
+                subscribed += result.changed();
+            } else {
+                unsubscribed += result.changed();
+            }
+            pruned += result.pruned();
+            result.errors().forEach((reason, count) -> {
+                errors.merge(reason, count, Long::sum);
+                failed += count;
+            });
+        }
+
+        TopicSyncReport toReport(Duration elapsed) {
+            return new TopicSyncReport(topic, subscribed, unsubscribed, failed, pruned, Map.copyOf(errors), elapsed);
+        }
+    }
+}
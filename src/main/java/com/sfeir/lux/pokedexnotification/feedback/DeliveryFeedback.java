@@ -0,0 +1,151 @@
+package com.sfeir.lux.pokedexnotification.feedback;
+
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.sfeir.lux.pokedexnotification.apns.ApnsDeliveryOutcome;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classifies provider responses and removes the tokens they report as permanently invalid from the registry,
+ * so dead devices are not targeted by the next broadcasts.
+ * <p>
+ * An APNs token is only removed right away when Apple reports it {@code Unregistered}. Apple also answers
+ * {@code BadDeviceToken} for a valid token of the other environment, so after a wrong {@code apns.production} every
+ * device would be rejected: such a token is quarantined instead, and only removed if it is still rejected
+ * {@code feedback.quarantine-ms} later without having been accepted in between.
+ */
+@Service
+public class DeliveryFeedback {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryFeedback.class);
+
+    // https://developer.apple.com/documentation/usernotifications/handling-notification-responses-from-apns
+    private static final String APNS_UNREGISTERED = "Unregistered";
+    // DeviceTokenNotForTopic is left out, it only means apns.topic is wrong
+    private static final Set<String> APNS_QUARANTINED_REASONS = Set.of("BadDeviceToken", "ExpiredToken");
+    private static final Set<MessagingErrorCode> FCM_INVALID_TOKEN_CODES = Set.of(MessagingErrorCode.UNREGISTERED, MessagingErrorCode.SENDER_ID_MISMATCH);
+    // topic management reports its per-token errors as reasons rather than messaging error codes
+    private static final Set<String> FCM_TOPIC_INVALID_TOKEN_REASONS = Set.of("registration-token-not-registered", "invalid-argument");
+
+    private final DeviceRegistry deviceRegistry;
+    private final int recentSize;
+    private final long quarantineMs;
+    // APNs token -> time of its first rejection since it was last accepted
+    private final Map<String, Long> apnsQuarantine = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> prunedByReason = new ConcurrentHashMap<>();
+    private final Deque<PrunedToken> recent = new ArrayDeque<>();
+
+    /**
+     * @param quarantineMs how long an APNs token keeps being rejected before it is removed, 0 to remove it right away
+     */
+    public DeliveryFeedback(DeviceRegistry deviceRegistry, @Value("${feedback.recent-size:1000}") int recentSize,
+                            @Value("${feedback.quarantine-ms:259200000}") long quarantineMs) {
+        this.deviceRegistry = deviceRegistry;
+        this.recentSize = recentSize;
+        this.quarantineMs = quarantineMs;
+    }
+
+    /**
+     * @return true if the device token was pruned
+     */
+    public boolean onApnsOutcome(ApnsDeliveryOutcome outcome) {
+        if (outcome.status() == ApnsDeliveryOutcome.Status.ACCEPTED) {
+            if (!apnsQuarantine.isEmpty()) {
+                apnsQuarantine.remove(outcome.device());
+            }
+            return false;
+        }
+        if (outcome.status() != ApnsDeliveryOutcome.Status.REJECTED) {
+            return false;
+        }
+        if (APNS_UNREGISTERED.equals(outcome.reason())) {
+            apnsQuarantine.remove(outcome.device());
+            return prune(DevicePlatform.APNS, outcome.device(), outcome.reason(), outcome.tokenInvalidatedAt());
+        }
+        if (!APNS_QUARANTINED_REASONS.contains(outcome.reason())) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long since = apnsQuarantine.computeIfAbsent(outcome.device(), device -> now);
+        if (now - since < quarantineMs) {
+            return false;
+        }
+        apnsQuarantine.remove(outcome.device());
+        return prune(DevicePlatform.APNS, outcome.device(), outcome.reason(), null);
+    }
+
+    /**
+     * @return true if the registration token was pruned
+     */
+    public boolean onFcmError(DevicePlatform platform, String token, Exception error) {
+        if (!(error instanceof FirebaseMessagingException messagingException)
+                || messagingException.getMessagingErrorCode() == null
+                || !FCM_INVALID_TOKEN_CODES.contains(messagingException.getMessagingErrorCode())) {
+            return false;
+        }
+        return prune(platform, token, messagingException.getMessagingErrorCode().name(), null);
+    }
+
+    /**
+     * @param reason the reason of a per-token error of a topic subscription or unsubscription
+     * @return true if the error means the registration token is invalid for good, whether it was pruned or not
+     */
+    public boolean onFcmTopicError(String token, String reason) {
+        if (!FCM_TOPIC_INVALID_TOKEN_REASONS.contains(reason)) {
+            return false;
+        }
+        prune(DevicePlatform.FCM, token, reason, null);
+        return true;
+    }
+
+    public FeedbackStats stats() {
+        Map<String, Long> byReason = new TreeMap<>();
+        prunedByReason.forEach((reason, count) -> byReason.put(reason, count.sum()));
+        List<PrunedToken> recentTokens;
+        synchronized (recent) {
+            recentTokens = List.copyOf(recent);
+        }
+        return new FeedbackStats(byReason.values().stream().mapToLong(Long::longValue).sum(), byReason, apnsQuarantine.size(), recentTokens);
+    }
+
+    private boolean prune(DevicePlatform platform, String token, String reason, Instant invalidatedAt) {
+        if (!deviceRegistry.unregister(platform, token)) {
+            // not registered, or already pruned by a concurrent send
+            return false;
+        }
+        prunedByReason.computeIfAbsent(platform + ":" + reason, k -> new LongAdder()).increment();
+        var pruned = new PrunedToken(platform, token, reason, invalidatedAt, Instant.now());
+        synchronized (recent) {
+            if (recent.size() == recentSize) {
+                recent.removeFirst();
+            }
+            recent.addLast(pruned);
+        }
+        log.debug("Pruned {} token {}: {}", platform, token, reason);
+        return true;
+    }
+
+    /**
+     * @param pruned         tokens pruned since startup
+     * @param prunedByReason pruned tokens per "platform:reason"
+     * @param quarantined    APNs tokens rejected and waiting for the end of their quarantine
+     * @param recent         the last pruned tokens
+     */
+    public record FeedbackStats(long pruned, Map<String, Long> prunedByReason, int quarantined, List<PrunedToken> recent) {
+    }
+}
@@ -0,0 +1,11 @@
+package com.sfeir.lux.pokedexnotification.feedback;
+
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+
+import java.time.Instant;
+
+/**
+ * @param invalidatedAt when the provider last confirmed the token was no longer valid, null if it did not say
+ */
+public record PrunedToken(DevicePlatform platform, String token, String reason, Instant invalidatedAt, Instant prunedAt) {
+}
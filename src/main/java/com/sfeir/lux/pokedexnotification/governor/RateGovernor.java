@@ -0,0 +1,174 @@
+package com.sfeir.lux.pokedexnotification.governor;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Token bucket rate limit and concurrency cap for one provider, adapting its rate to the provider throttling.
+ * <p>
+ * The rate is halved when the provider throttles, at most once per second so a burst of 429 answers to requests
+ * already in flight counts once, and grows back by a twentieth of the configured rate per second of sends without
+ * throttling. Sustained throughput then stays just under the provider limit instead of alternating between full
+ * speed and throttling.
+ */
+public class RateGovernor {
+
+    private static final long ADJUST_INTERVAL_NANOS = Duration.ofSeconds(1).toNanos();
+
+    private final String name;
+    private final double maxRate;
+    private final double minRate;
+    private final double burst;
+
+    // token bucket, guarded by this
+    private double rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long lastAdjustment = System.nanoTime() - ADJUST_INTERVAL_NANOS;
+
+    // concurrency cap, guarded by this
+    private int available;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    /**
+     * @param rate           permits per second
+     * @param burst          permits that can be used at once after an idle period
+     * @param maxConcurrency calls in flight at the same time
+     */
+    public RateGovernor(String name, double rate, double minRate, double burst, int maxConcurrency) {
+        this.name = name;
+        this.maxRate = rate;
+        this.minRate = Math.min(minRate, rate);
+        this.burst = Math.max(burst, 1);
+        this.rate = rate;
+        this.tokens = this.burst;
+        this.available = maxConcurrency;
+    }
+
+    /**
+     * Runs the call once a permit and a concurrency slot are available, without blocking a thread while waiting.
+     */
+    public <T> Mono<T> throttle(Supplier<Mono<T>> call) {
+        return throttle(1, call);
+    }
+
+    public <T> Mono<T> throttle(int permits, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            long wait = reserve(permits);
+            Mono<Slot> slot = wait > 0 ? Mono.delay(Duration.ofNanos(wait)).then(acquireSlot()) : acquireSlot();
+            return Mono.usingWhen(slot, s -> Mono.defer(call), Slot::release, (s, e) -> s.release(), Slot::release);
+        });
+    }
+
+    public synchronized void onThrottled() {
+        long now = System.nanoTime();
+        if (now - lastAdjustment >= ADJUST_INTERVAL_NANOS) {
+            refill(now);
+            rate = Math.max(minRate, rate / 2);
+            lastAdjustment = now;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        long now = System.nanoTime();
+        if (rate < maxRate && now - lastAdjustment >= ADJUST_INTERVAL_NANOS) {
+            refill(now);
+            rate = Math.min(maxRate, rate + maxRate / 20);
+            lastAdjustment = now;
+        }
+    }
+
+    public synchronized GovernorStats stats() {
+        return new GovernorStats(name, rate, maxRate, available, waiters.size());
+    }
+
+    // reserves the permits now, possibly in debt, and returns how long the caller must wait before using them
+    private synchronized long reserve(int permits) {
+        refill(System.nanoTime());
+        tokens -= permits;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1_000_000_000d);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1_000_000_000d);
+        lastRefill = now;
+    }
+
+    private Mono<Slot> acquireSlot() {
+        return Mono.create(sink -> {
+            Slot granted = null;
+            Waiter waiter = null;
+            synchronized (this) {
+                if (available > 0) {
+                    available--;
+                    granted = new Slot();
+                } else {
+                    waiter = new Waiter(sink);
+                    waiters.add(waiter);
+                }
+            }
+            if (granted != null) {
+                sink.onCancel(granted::release);
+                sink.success(granted);
+            } else {
+                var queued = waiter;
+                sink.onCancel(() -> {
+                    Slot slot;
+                    synchronized (this) {
+                        waiters.remove(queued);
+                        slot = queued.slot;
+                    }
+                    if (slot != null) {
+                        slot.release();
+                    }
+                });
+            }
+        });
+    }
+
+    private void releaseSlot() {
+        Waiter next;
+        synchronized (this) {
+            next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+            next.slot = new Slot();
+        }
+        next.sink.success(next.slot);
+    }
+
+    private final class Slot {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        // idempotent, cancellation and completion may both release the same slot
+        Mono<Void> release() {
+            if (released.compareAndSet(false, true)) {
+                releaseSlot();
+            }
+            return Mono.empty();
+        }
+    }
+
+    private final class Waiter {
+        private final MonoSink<Slot> sink;
+        private Slot slot;
+
+        private Waiter(MonoSink<Slot> sink) {
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * @param availableSlots concurrency slots not in use
+     * @param waiting        calls waiting for a slot
+     */
+    public record GovernorStats(String name, double rate, double maxRate, int availableSlots, int waiting) {
+    }
+}
@@ -0,0 +1,69 @@
+package com.sfeir.lux.pokedexnotification.governor;
+
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * One {@link RateGovernor} per provider, shared by the endpoints, the fan-out and the queue workers so together
+ * they stay within the provider limits.
+ * <p>
+ * Each governor is configured under {@code governor.<provider>}: {@code rate} and {@code min-rate} in permits per
+ * second, {@code burst} and {@code max-concurrency}. A permit is one notification for APNs and FCM, where a multicast
+ * chunk takes one permit per token, and one hub call for Azure.
+ * <p>
+ * Each tenant gets its own governors, see {@link #forTenant}, so one tenant's broadcast can't use up the budget of
+ * the others.
+ */
+@Component
+public class TransportGovernors {
+
+    private final Map<NotificationProvider, RateGovernor> governors = new EnumMap<>(NotificationProvider.class);
+
+    public TransportGovernors(Environment environment) {
+        this(environment, "governor.", "");
+    }
+
+    // a setting missing under prefix falls back to the shared governor.<provider> one
+    private TransportGovernors(Environment environment, String prefix, String namePrefix) {
+        governors.put(NotificationProvider.APNS, create(environment, prefix, namePrefix, NotificationProvider.APNS, 2000, 2000, 1000));
+        governors.put(NotificationProvider.FCM, create(environment, prefix, namePrefix, NotificationProvider.FCM, 5000, 5000, 16));
+        governors.put(NotificationProvider.AZURE, create(environment, prefix, namePrefix, NotificationProvider.AZURE, 100, 100, 32));
+    }
+
+    /**
+     * Governors of a tenant, configured under {@code tenants.apps.<tenant>.governor.<provider>}.
+     */
+    public static TransportGovernors forTenant(Environment environment, String tenant) {
+        return new TransportGovernors(environment, "tenants.apps." + tenant + ".governor.", tenant + "/");
+    }
+
+    private static RateGovernor create(Environment environment, String prefix, String namePrefix, NotificationProvider provider,
+                                       double rate, double burst, int maxConcurrency) {
+        String own = prefix + provider.name().toLowerCase() + ".";
+        String shared = "governor." + provider.name().toLowerCase() + ".";
+        double configuredRate = property(environment, own, shared, "rate", Double.class, rate);
+        return new RateGovernor(namePrefix + provider.name(),
+                configuredRate,
+                property(environment, own, shared, "min-rate", Double.class, configuredRate / 20),
+                property(environment, own, shared, "burst", Double.class, burst),
+                property(environment, own, shared, "max-concurrency", Integer.class, maxConcurrency));
+    }
+
+    private static <T> T property(Environment environment, String own, String shared, String key, Class<T> type, T defaultValue) {
+        return environment.getProperty(own + key, type, environment.getProperty(shared + key, type, defaultValue));
+    }
+
+    public RateGovernor get(NotificationProvider provider) {
+        return governors.get(provider);
+    }
+
+    public Map<NotificationProvider, RateGovernor.GovernorStats> stats() {
+        Map<NotificationProvider, RateGovernor.GovernorStats> stats = new EnumMap<>(NotificationProvider.class);
+        governors.forEach((provider, governor) -> stats.put(provider, governor.stats()));
+        return stats;
+    }
+}
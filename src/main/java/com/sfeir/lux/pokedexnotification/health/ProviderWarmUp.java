@@ -0,0 +1,120 @@
+package com.sfeir.lux.pokedexnotification.health;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.sfeir.lux.pokedexnotification.apns.ApnsProviderTokenManager;
+import com.sfeir.lux.pokedexnotification.azure.AzureHubGateway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.CompositeHealthContributor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthContributor;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.NamedContributor;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Initialises Firebase, APNs and the notification hub concurrently on virtual threads once the context is started,
+ * instead of in the constructors of the beans, and reports each of them as a {@code providers} health component, in
+ * its own {@code providers} health group rather than in the readiness one.
+ * <p>
+ * A provider failing to initialise is DOWN with its error while the application stays ready and keeps serving the
+ * other providers, its initialisation is retried in the background on each health check and on its next send. With
+ * {@code providers.warm-up=false} every provider is initialised on its first send and stays UNKNOWN.
+ */
+@Component("providers")
+public class ProviderWarmUp implements CompositeHealthContributor {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderWarmUp.class);
+
+    private final Map<String, Provider> providers = new LinkedHashMap<>();
+    private final boolean warmUp;
+
+    public ProviderWarmUp(ObjectFactory<FirebaseMessaging> firebaseMessaging, ObjectFactory<ApnsClient> apnsClient,
+                          ApnsProviderTokenManager tokenManager, AzureHubGateway azureHubGateway,
+                          @Value("${providers.warm-up:true}") boolean warmUp) {
+        this.warmUp = warmUp;
+        providers.put("firebase", new Provider("firebase", firebaseMessaging::getObject));
+        providers.put("apns", new Provider("apns", () -> {
+            apnsClient.getObject();
+            tokenManager.getToken();
+        }));
+        providers.put("azure", new Provider("azure", azureHubGateway::initialize));
+    }
+
+    // after the refresh, so the warm-up never delays the embedded server nor an AOT or CDS training run
+    @EventListener(ApplicationStartedEvent.class)
+    public void start() {
+        if (warmUp) {
+            providers.values().forEach(Provider::initializeInBackground);
+        }
+    }
+
+    @Override
+    public HealthContributor getContributor(String name) {
+        return providers.get(name);
+    }
+
+    @Override
+    public Iterator<NamedContributor<HealthContributor>> iterator() {
+        return providers.values().stream()
+                .map(provider -> NamedContributor.<HealthContributor>of(provider.name, provider))
+                .iterator();
+    }
+
+    private static final class Provider implements HealthIndicator {
+        private final String name;
+        private final Runnable initializer;
+        private final AtomicBoolean initializing = new AtomicBoolean();
+        private volatile Health health = Health.unknown().withDetail("initialization", "on first send").build();
+
+        Provider(String name, Runnable initializer) {
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        void initializeInBackground() {
+            if (initializing.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("provider-warm-up-" + name).start(this::initialize);
+            }
+        }
+
+        private void initialize() {
+            // a retry stays DOWN until it succeeds rather than flapping through OUT_OF_SERVICE
+            if (!Status.DOWN.equals(health.getStatus())) {
+                health = Health.outOfService().withDetail("initialization", "in progress").build();
+            }
+            long start = System.nanoTime();
+            try {
+                initializer.run();
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                log.info("Provider {} initialised in {} ms", name, elapsedMs);
+                health = Health.up().withDetail("initializationMs", elapsedMs).build();
+            } catch (RuntimeException e) {
+                log.warn("Unable to initialise provider {}", name, e);
+                health = Health.down(e).build();
+            } finally {
+                initializing.set(false);
+            }
+        }
+
+        @Override
+        public Health health() {
+            var current = health;
+            if (Status.DOWN.equals(current.getStatus())) {
+                initializeInBackground();
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.sfeir.lux.pokedexnotification.interest;
+
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Inverted index from interest to devices: one compressed bitmap of {@link DeviceRegistry#id device ids} per
+ * species, generation ({@code gen1} to {@code gen9}), configured group and {@value #ALL}, per platform.
+ * <p>
+ * The audience of a Pokemon is the union of the bitmaps of its species, its generation, the groups holding it and
+ * {@value #ALL}, plus the devices that never chose their interests when {@code defaultAll} is set. Queries combine
+ * interests with {@code &} (intersection), which binds tighter than {@code |} (union), e.g. {@code gen1|legendary}.
+ * <p>
+ * Device ids only hold until the registry is reopened, so interests are logged by token and the bitmaps are rebuilt
+ * from the log on startup; the log is rewritten with only the current interests when it holds more than twice as many
+ * records as there are devices with interests. An unregistered device loses its interests, logged as an empty set, so
+ * its id, reused if it registers again, starts without interests both now and after a restart.
+ */
+public class InterestIndex implements Closeable {
+
+    public static final String ALL = "*";
+
+    private static final Logger log = LoggerFactory.getLogger(InterestIndex.class);
+    private static final int COMPACTION_WINDOW = 1 << 16;
+
+    // first species of each generation, and one past the last species
+    private static final int[] GENERATIONS = {1, 152, 252, 387, 494, 650, 722, 810, 906, NotificationPayloads.POKEMON_COUNT + 1};
+
+    private final DeviceRegistry deviceRegistry;
+    private final Path file;
+    private final boolean defaultAll;
+    private final Map<String, RoaringBitmap> groups;
+    // keys whose bitmap holds the audience of each species
+    private final String[][] speciesKeys = new String[NotificationPayloads.POKEMON_COUNT + 1][];
+    private final Map<DevicePlatform, Map<String, RoaringBitmap>> bitmaps = new EnumMap<>(DevicePlatform.class);
+    // devices that chose their interests
+    private final Map<DevicePlatform, RoaringBitmap> explicit = new EnumMap<>(DevicePlatform.class);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final DeviceRegistry.UnregisterListener unregisterListener = this::unregistered;
+    private DataOutputStream out;
+    private long records;
+
+    private InterestIndex(DeviceRegistry deviceRegistry, Path file, Map<String, Set<Integer>> groups, boolean defaultAll) {
+        this.deviceRegistry = deviceRegistry;
+        this.file = file;
+        this.defaultAll = defaultAll;
+        this.groups = new HashMap<>();
+        groups.forEach((name, species) -> {
+            var bitmap = new RoaringBitmap();
+            species.forEach(bitmap::add);
+            this.groups.put(name, bitmap);
+        });
+        for (int species = 1; species <= NotificationPayloads.POKEMON_COUNT; species++) {
+            List<String> keys = new ArrayList<>(List.of(String.valueOf(species), generation(species), ALL));
+            for (var group : this.groups.entrySet()) {
+                if (group.getValue().contains(species)) {
+                    keys.add(group.getKey());
+                }
+            }
+            speciesKeys[species] = keys.toArray(String[]::new);
+        }
+        for (DevicePlatform platform : DevicePlatform.values()) {
+            bitmaps.put(platform, new HashMap<>());
+            explicit.put(platform, new RoaringBitmap());
+        }
+    }
+
+    /**
+     * @param groups     species of each named group, e.g. {@code legendary}
+     * @param defaultAll whether devices that never chose their interests get every Pokemon
+     */
+    public static InterestIndex open(DeviceRegistry deviceRegistry, Path file, Map<String, Set<Integer>> groups, boolean defaultAll) throws IOException {
+        var index = new InterestIndex(deviceRegistry, file, groups, defaultAll);
+        long start = System.nanoTime();
+        if (Files.exists(file)) {
+            index.replay();
+        } else if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (index.records > 2L * index.live()) {
+            index.compact();
+        }
+        index.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        deviceRegistry.addUnregisterListener(index.unregisterListener);
+        log.info("Loaded the interests of {} devices from {} in {} ms", index.live(), file, (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    /**
+     * Replaces the interests of a device, an empty set makes it a device that never chose.
+     *
+     * @return false if the device is not registered
+     */
+    public boolean update(DevicePlatform platform, String token, Set<String> interests) {
+        for (String interest : interests) {
+            if (!isValid(interest)) {
+                throw new IllegalArgumentException("Unknown interest " + interest);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            int id = deviceRegistry.id(platform, token);
+            if (id < 0) {
+                return false;
+            }
+            apply(platform, id, interests);
+            write(platform, token, interests);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the interests of the device, empty if it never chose, null if it is not registered
+     */
+    public Set<String> interests(DevicePlatform platform, String token) {
+        lock.readLock().lock();
+        try {
+            int id = deviceRegistry.id(platform, token);
+            if (id < 0) {
+                return null;
+            }
+            Set<String> interests = new TreeSet<>();
+            bitmaps.get(platform).forEach((interest, devices) -> {
+                if (devices.contains(id)) {
+                    interests.add(interest);
+                }
+            });
+            return interests;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param pokemon a species id, anything else only reaches {@value #ALL}
+     */
+    public RoaringBitmap audience(DevicePlatform platform, String pokemon) {
+        int species = parseSpecies(pokemon);
+        String[] keys = species > 0 ? speciesKeys[species] : new String[]{ALL};
+        lock.readLock().lock();
+        try {
+            var platformBitmaps = bitmaps.get(platform);
+            List<RoaringBitmap> matching = new ArrayList<>(keys.length + 1);
+            for (String key : keys) {
+                var devices = platformBitmaps.get(key);
+                if (devices != null) {
+                    matching.add(devices);
+                }
+            }
+            if (defaultAll) {
+                matching.add(RoaringBitmap.flip(explicit.get(platform), 0L, deviceRegistry.idBound(platform)));
+            }
+            return FastAggregation.or(matching.iterator());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param query interests combined with {@code &} and {@code |}, {@code &} first
+     */
+    public RoaringBitmap query(DevicePlatform platform, String query) {
+        lock.readLock().lock();
+        try {
+            var platformBitmaps = bitmaps.get(platform);
+            List<RoaringBitmap> union = new ArrayList<>();
+            for (String conjunction : query.split("\\|")) {
+                List<RoaringBitmap> intersection = new ArrayList<>();
+                for (String interest : conjunction.split("&")) {
+                    interest = interest.trim();
+                    if (!isValid(interest)) {
+                        throw new IllegalArgumentException("Unknown interest " + interest);
+                    }
+                    intersection.add(platformBitmaps.getOrDefault(interest, new RoaringBitmap()));
+                }
+                union.add(FastAggregation.and(intersection.iterator()));
+            }
+            return FastAggregation.or(union.iterator());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lazily resolves an audience to the tokens of its devices still registered.
+     */
+    public Stream<String> tokens(DevicePlatform platform, RoaringBitmap audience) {
+        var ids = audience.getIntIterator();
+        return deviceRegistry.resolve(platform, new PrimitiveIterator.OfInt() {
+            @Override
+            public int nextInt() {
+                return ids.next();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        deviceRegistry.removeUnregisterListener(unregisterListener);
+        lock.writeLock().lock();
+        try {
+            out.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unregistered(DevicePlatform platform, String token, int id) {
+        lock.writeLock().lock();
+        try {
+            // registered again in the meantime, or never chose
+            if (deviceRegistry.token(platform, id) != null || !explicit.get(platform).contains(id)) {
+                return;
+            }
+            apply(platform, id, Set.of());
+            write(platform, token, Set.of());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(DevicePlatform platform, int id, Set<String> interests) {
+        var platformBitmaps = bitmaps.get(platform);
+        // at most one bitmap per species, generation and group to look at
+        platformBitmaps.values().forEach(devices -> devices.remove(id));
+        for (String interest : interests) {
+            platformBitmaps.computeIfAbsent(interest, key -> new RoaringBitmap()).add(id);
+        }
+        if (interests.isEmpty()) {
+            explicit.get(platform).remove(id);
+        } else {
+            explicit.get(platform).add(id);
+        }
+    }
+
+    private boolean isValid(String interest) {
+        return ALL.equals(interest) || parseSpecies(interest) > 0 || groups.containsKey(interest)
+                || (interest.startsWith("gen") && interest.length() == 4 && interest.charAt(3) >= '1' && interest.charAt(3) < '1' + GENERATIONS.length - 1);
+    }
+
+    private static String generation(int species) {
+        int generation = 1;
+        while (species >= GENERATIONS[generation]) {
+            generation++;
+        }
+        return "gen" + generation;
+    }
+
+    private static int parseSpecies(String pokemon) {
+        if (pokemon == null || pokemon.isEmpty() || pokemon.length() > 4) {
+            return -1;
+        }
+        int id = 0;
+        for (int i = 0; i < pokemon.length(); i++) {
+            char c = pokemon.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id >= 1 && id <= NotificationPayloads.POKEMON_COUNT ? id : -1;
+    }
+
+    private long live() {
+        return explicit.values().stream().mapToLong(RoaringBitmap::getLongCardinality).sum();
+    }
+
+    private void write(DevicePlatform platform, String token, Set<String> interests) {
+        try {
+            writeRecord(out, platform, token, interests);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, DevicePlatform platform, String token, Set<String> interests) throws IOException {
+        var bytes = token.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(platform.ordinal());
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        out.writeShort(interests.size());
+        for (String interest : interests) {
+            var name = interest.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+    }
+
+    private void replay() throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int consumed = 0;
+            while (replayRecord(buffer)) {
+                consumed = buffer.position();
+                records++;
+            }
+            if (consumed < buffer.limit()) {
+                // the last record was only partially written before a crash, drop it
+                log.warn("Truncating incomplete record at the end of {}", file);
+                channel.truncate(consumed);
+            }
+        }
+    }
+
+    // false if the buffer doesn't hold the whole record
+    private boolean replayRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < 3) {
+            return false;
+        }
+        var platform = DevicePlatform.values()[buffer.get()];
+        var token = new byte[buffer.getShort() & 0xFFFF];
+        if (buffer.remaining() < token.length + 2) {
+            return false;
+        }
+        buffer.get(token);
+        Set<String> interests = new LinkedHashSet<>();
+        for (int i = buffer.getShort() & 0xFFFF; i > 0; i--) {
+            if (buffer.remaining() < 2) {
+                return false;
+            }
+            var name = new byte[buffer.getShort() & 0xFFFF];
+            if (buffer.remaining() < name.length) {
+                return false;
+            }
+            buffer.get(name);
+            interests.add(new String(name, StandardCharsets.UTF_8));
+        }
+        // devices unregistered while the application was down lose their interests at the next compaction
+        int id = deviceRegistry.id(platform, new String(token, StandardCharsets.UTF_8));
+        if (id >= 0) {
+            apply(platform, id, interests);
+        }
+        return true;
+    }
+
+    private void compact() throws IOException {
+        var tmp = file.resolveSibling(file.getFileName() + ".compact");
+        long written = 0;
+        try (var compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            for (var platform : explicit.keySet()) {
+                written += compact(compacted, platform);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Compacted {} from {} to {} records", file, records, written);
+        records = written;
+    }
+
+    // gathers the interests of a window of ids at a time, each bitmap is walked once in total
+    @SuppressWarnings("unchecked")
+    private long compact(DataOutputStream compacted, DevicePlatform platform) throws IOException {
+        long written = 0;
+        int bound = deviceRegistry.idBound(platform);
+        List<String>[] window = new List[COMPACTION_WINDOW];
+        Map<String, PeekableIntIterator> iterators = new HashMap<>();
+        bitmaps.get(platform).forEach((interest, devices) -> iterators.put(interest, devices.getIntIterator()));
+        for (int start = 0; start < bound; start += COMPACTION_WINDOW) {
+            int end = start + COMPACTION_WINDOW;
+            for (var interest : iterators.entrySet()) {
+                var ids = interest.getValue();
+                while (ids.hasNext() && ids.peekNext() < end) {
+                    int slot = ids.next() - start;
+                    if (window[slot] == null) {
+                        window[slot] = new ArrayList<>();
+                    }
+                    window[slot].add(interest.getKey());
+                }
+            }
+            for (int slot = 0; slot < COMPACTION_WINDOW; slot++) {
+                if (window[slot] != null) {
+                    var token = deviceRegistry.token(platform, start + slot);
+                    if (token != null) {
+                        writeRecord(compacted, platform, token, new LinkedHashSet<>(window[slot]));
+                        written++;
+                    }
+                    window[slot] = null;
+                }
+            }
+        }
+        return written;
+    }
+}
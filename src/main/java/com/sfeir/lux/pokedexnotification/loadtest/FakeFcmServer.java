@@ -0,0 +1,77 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import com.google.gson.JsonParser;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers the FCM v1 {@code messages:send} calls and the instance id topic management calls made by the Firebase
+ * Admin SDK, whose requests are redirected here by {@link LoadTestConfig}.
+ */
+public class FakeFcmServer implements AutoCloseable {
+
+    private static final String QUOTA_EXCEEDED = "{\"error\":{\"code\":429,\"message\":\"Quota exceeded\",\"status\":\"RESOURCE_EXHAUSTED\","
+            + "\"details\":[{\"@type\":\"type.googleapis.com/google.firebase.fcm.v1.FcmError\",\"errorCode\":\"QUOTA_EXCEEDED\"}]}}";
+    private static final String UNAVAILABLE = "{\"error\":{\"code\":503,\"message\":\"Unavailable\",\"status\":\"UNAVAILABLE\","
+            + "\"details\":[{\"@type\":\"type.googleapis.com/google.firebase.fcm.v1.FcmError\",\"errorCode\":\"UNAVAILABLE\"}]}}";
+
+    private final MockBehavior behavior;
+    private final AtomicLong messageIds = new AtomicLong();
+    private final DisposableServer server;
+
+    public FakeFcmServer(int port, MockBehavior behavior) {
+        this.behavior = behavior;
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(port)
+                .handle(this::handle)
+                .bindNow();
+    }
+
+    private Mono<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive().aggregate().asString().defaultIfEmpty("")
+                .delayElement(behavior.latency())
+                .flatMap(body -> {
+                    if (request.uri().startsWith("/iid/")) {
+                        return topicManagement(body, response);
+                    }
+                    return switch (behavior.decide()) {
+                        case OK -> json(response, HttpResponseStatus.OK, "{\"name\":\"projects/loadtest/messages/" + messageIds.incrementAndGet() + "\"}");
+                        case ERROR -> json(response, HttpResponseStatus.SERVICE_UNAVAILABLE, UNAVAILABLE);
+                        case THROTTLED -> json(response.header("retry-after", "1"), HttpResponseStatus.TOO_MANY_REQUESTS, QUOTA_EXCEEDED);
+                    };
+                });
+    }
+
+    // batchAdd and batchRemove answer one empty result, a success, per registration token
+    private static Mono<Void> topicManagement(String body, HttpServerResponse response) {
+        int tokens = JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("registration_tokens").size();
+        var results = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < tokens; i++) {
+            results.append(i == 0 ? "{}" : ",{}");
+        }
+        return json(response, HttpResponseStatus.OK, results.append("]}").toString());
+    }
+
+    private static Mono<Void> json(HttpServerResponse response, HttpResponseStatus status, String body) {
+        return response.status(status)
+                .header("content-type", "application/json; charset=UTF-8")
+                .sendString(Mono.just(body))
+                .then();
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
@@ -0,0 +1,65 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.util.UUID;
+
+/**
+ * Answers the Notification Hubs REST calls of the hub client: every send is accepted with a tracking id and the
+ * registration reads return an empty feed.
+ */
+public class FakeNotificationHubServer implements AutoCloseable {
+
+    private static final String EMPTY_FEED = "<?xml version=\"1.0\" encoding=\"utf-8\"?><feed xmlns=\"http://www.w3.org/2005/Atom\"><title type=\"text\">Registrations</title></feed>";
+
+    private final MockBehavior behavior;
+    private final DisposableServer server;
+
+    public FakeNotificationHubServer(int port, MockBehavior behavior) {
+        this.behavior = behavior;
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(port)
+                .handle(this::handle)
+                .bindNow();
+    }
+
+    private Mono<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive().then()
+                .then(Mono.delay(behavior.latency()))
+                .then(Mono.defer(() -> switch (behavior.decide()) {
+                    case OK -> request.method().equals(HttpMethod.POST) && request.path().contains("/messages")
+                            ? accepted(request, response)
+                            : response.status(HttpResponseStatus.OK)
+                            .header("content-type", "application/atom+xml;type=feed;charset=utf-8")
+                            .sendString(Mono.just(EMPTY_FEED))
+                            .then();
+                    case ERROR -> response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send().then();
+                    case THROTTLED -> response.status(HttpResponseStatus.TOO_MANY_REQUESTS).header("retry-after", "1").send().then();
+                }));
+    }
+
+    private static Mono<Void> accepted(HttpServerRequest request, HttpServerResponse response) {
+        var notificationId = UUID.randomUUID().toString();
+        return response.status(HttpResponseStatus.CREATED)
+                .header("TrackingId", UUID.randomUUID().toString())
+                .header("Location", "http://" + request.requestHeaders().get("host") + "/" + request.path() + "/" + notificationId)
+                .send()
+                .then();
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
@@ -0,0 +1,127 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the REST endpoints of this application at a target rate and measures what their callers see.
+ * <p>
+ * Requests are issued on 10 ms ticks, so the rate holds whatever the latency is; when {@code maxInFlight} requests
+ * are already pending the request is dropped and counted instead of delayed, which would hide the latency.
+ */
+public class LoadScenarioRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadScenarioRunner.class);
+    private static final Duration TICK = Duration.ofMillis(10);
+    private static final long TICKS_PER_SECOND = Duration.ofSeconds(1).toMillis() / TICK.toMillis();
+
+    private final Environment environment;
+    private final WebClient webClient = WebClient.create();
+
+    public LoadScenarioRunner(Environment environment) {
+        this.environment = environment;
+    }
+
+    public Mono<ScenarioReport> run(Scenario scenario) {
+        return Mono.defer(() -> {
+            var baseUrl = "http://localhost:" + environment.getProperty("local.server.port", "8080");
+            var latencies = new Latencies((long) (scenario.rate() * scenario.durationSeconds()));
+            Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+            var inFlight = new AtomicLong();
+            var dropped = new AtomicLong();
+            double perTick = scenario.rate() / TICKS_PER_SECOND;
+            long start = System.nanoTime();
+            return Flux.interval(TICK)
+                    .take(scenario.durationSeconds() * TICKS_PER_SECOND)
+                    // requests due by the end of this tick, minus the ones already issued
+                    .concatMapIterable(tick -> Collections.nCopies((int) ((long) ((tick + 1) * perTick) - (long) (tick * perTick)), tick))
+                    .filter(due -> {
+                        if (inFlight.incrementAndGet() > scenario.maxInFlight()) {
+                            inFlight.decrementAndGet();
+                            dropped.incrementAndGet();
+                            return false;
+                        }
+                        return true;
+                    })
+                    .flatMap(due -> call(baseUrl, scenario)
+                            .doOnNext(outcome -> {
+                                outcomes.computeIfAbsent(outcome.outcome(), o -> new LongAdder()).increment();
+                                latencies.add(outcome.nanos());
+                            })
+                            .doFinally(signal -> inFlight.decrementAndGet()), Integer.MAX_VALUE)
+                    .then(Mono.fromSupplier(() -> {
+                        var report = latencies.report(scenario, dropped.get(), sorted(outcomes), Duration.ofNanos(System.nanoTime() - start));
+                        log.info("Load scenario {} {} at {}/s: {}", scenario.method(), scenario.path(), scenario.rate(), report);
+                        return report;
+                    }));
+        });
+    }
+
+    private Mono<CallOutcome> call(String baseUrl, Scenario scenario) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            var request = webClient.method(HttpMethod.valueOf(scenario.method())).uri(baseUrl + scenario.path());
+            WebClient.RequestHeadersSpec<?> spec = scenario.body() != null ? request.contentType(MediaType.APPLICATION_JSON).bodyValue(scenario.body()) : request;
+            return spec.exchangeToMono(response -> response.releaseBody().thenReturn(String.valueOf(response.statusCode().value())))
+                    .onErrorResume(e -> Mono.just(e.getClass().getSimpleName()))
+                    .map(outcome -> new CallOutcome(outcome, System.nanoTime() - start));
+        });
+    }
+
+    private static Map<String, Long> sorted(Map<String, LongAdder> outcomes) {
+        Map<String, Long> sorted = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> sorted.put(outcome, count.sum()));
+        return sorted;
+    }
+
+    private record CallOutcome(String outcome, long nanos) {
+    }
+
+    /**
+     * Every latency of the run, sorted once at the end for exact percentiles.
+     */
+    private static final class Latencies {
+        private long[] nanos;
+        private int size;
+
+        Latencies(long expected) {
+            nanos = new long[(int) Math.min(Math.max(expected, 16), Integer.MAX_VALUE - 8)];
+        }
+
+        synchronized void add(long latency) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, nanos.length * 2);
+            }
+            nanos[size++] = latency;
+        }
+
+        synchronized ScenarioReport report(Scenario scenario, long dropped, Map<String, Long> outcomes, Duration elapsed) {
+            Arrays.sort(nanos, 0, size);
+            double seconds = Math.max(elapsed.toNanos(), 1) / 1_000_000_000d;
+            return new ScenarioReport(scenario, size, dropped, outcomes, elapsed, size / seconds,
+                    percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), size > 0 ? nanos[size - 1] / 1_000_000d : 0);
+        }
+
+        private double percentile(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            return nanos[(int) Math.min(size - 1, Math.ceil(percentile * size) - 1)] / 1_000_000d;
+        }
+    }
+}
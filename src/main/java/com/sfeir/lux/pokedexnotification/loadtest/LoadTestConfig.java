@@ -0,0 +1,164 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseOptions;
+import com.sfeir.lux.pokedexnotification.apns.ApnsSigningKeyLoader;
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@code loadtest} profile: APNs, FCM and Notification Hubs are replaced by local stand-ins, so the endpoints can
+ * be load tested without credentials nor network. The stand-ins are configured under {@code loadtest}, see
+ * {@link MockBehavior}, and {@code loadtest.devices} fills the registry with fake APNs and FCM devices.
+ */
+@Configuration
+@Profile("loadtest")
+public class LoadTestConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestConfig.class);
+
+    // APNs signing key of both the Pushy client and the provider tokens, the stand-ins accept any token
+    private final ECPrivateKey signingKey;
+
+    public LoadTestConfig() throws GeneralSecurityException {
+        var generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        this.signingKey = (ECPrivateKey) generator.generateKeyPair().getPrivate();
+    }
+
+    @Bean
+    public ApnsSigningKeyLoader loadTestSigningKeyLoader() {
+        return keyId -> signingKey;
+    }
+
+    @Bean
+    public MockBehavior apnsPushyBehavior(Environment environment) {
+        return MockBehavior.from(environment, "apns-pushy");
+    }
+
+    @Bean
+    public MockBehavior apnsWebClientBehavior(Environment environment) {
+        return MockBehavior.from(environment, "apns-webclient");
+    }
+
+    @Bean
+    public MockBehavior fcmBehavior(Environment environment) {
+        return MockBehavior.from(environment, "fcm");
+    }
+
+    @Bean
+    public MockBehavior azureBehavior(Environment environment) {
+        return MockBehavior.from(environment, "azure");
+    }
+
+    @Bean(destroyMethod = "close")
+    public MockApnsStandIns mockApnsStandIns(@Value("${loadtest.apns-pushy.port:18443}") int pushyPort, MockBehavior apnsPushyBehavior,
+                                             @Value("${loadtest.apns-webclient.port:18444}") int webClientPort, MockBehavior apnsWebClientBehavior)
+            throws CertificateException, SSLException, InterruptedException, ExecutionException {
+        return new MockApnsStandIns(pushyPort, apnsPushyBehavior, webClientPort, apnsWebClientBehavior);
+    }
+
+    @Bean(destroyMethod = "close")
+    @Lazy
+    public ApnsClient apnsClient(MockApnsStandIns mockApnsStandIns,
+                                 @Value("${loadtest.apns-pushy.port:18443}") int pushyPort,
+                                 @Value("${apns.keyId}") String keyId, @Value("${apns.teamId}") String teamId,
+                                 @Value("${apns.connections:4}") int connections) throws IOException, GeneralSecurityException {
+        return new ApnsClientBuilder()
+                .setApnsServer("localhost", pushyPort)
+                .setTrustedServerCertificateChain(mockApnsStandIns.certificate())
+                .setSigningKey(new ApnsSigningKey(keyId, teamId, signingKey))
+                .setConcurrentConnections(connections)
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public FakeFcmServer fakeFcmServer(@Value("${loadtest.fcm.port:18081}") int port, MockBehavior fcmBehavior) {
+        return new FakeFcmServer(port, fcmBehavior);
+    }
+
+    /**
+     * Firebase with a never expiring access token, and an HTTP transport sending every Google API call to the fake
+     * FCM server.
+     */
+    @Bean
+    @Lazy
+    public FirebaseOptions firebaseOptions(FakeFcmServer fakeFcmServer) {
+        var transport = new NetHttpTransport.Builder()
+                .setConnectionFactory(url -> (HttpURLConnection) URI.create("http://localhost:" + fakeFcmServer.port() + url.getFile()).toURL().openConnection())
+                .build();
+        return FirebaseOptions.builder()
+                .setCredentials(GoogleCredentials.create(new AccessToken("loadtest", Date.from(Instant.now().plus(Duration.ofDays(365))))))
+                .setProjectId("loadtest")
+                .setHttpTransport(transport)
+                .build();
+    }
+
+    /**
+     * Must match the endpoint of {@code azure.connection-string} in the loadtest profile.
+     */
+    @Bean(destroyMethod = "close")
+    public FakeNotificationHubServer fakeNotificationHubServer(@Value("${loadtest.azure.port:18082}") int port, MockBehavior azureBehavior) {
+        return new FakeNotificationHubServer(port, azureBehavior);
+    }
+
+    @Bean
+    public LoadScenarioRunner loadScenarioRunner(Environment environment) {
+        return new LoadScenarioRunner(environment);
+    }
+
+    /**
+     * Tops the registry up to {@code loadtest.devices} APNs and FCM devices. The fake FCM devices are in the
+     * {@code loadtest} topic rather than {@code pokemon}, whose memberships {@code TopicMembershipService} keeps in sync
+     * with FCM in the background.
+     */
+    @Bean
+    public ApplicationRunner loadTestDevices(DeviceRegistry deviceRegistry, @Value("${loadtest.devices:0}") int devices) {
+        return args -> {
+            for (DevicePlatform platform : Set.of(DevicePlatform.APNS, DevicePlatform.FCM)) {
+                int missing = devices - deviceRegistry.count(platform);
+                if (missing <= 0) {
+                    continue;
+                }
+                var random = ThreadLocalRandom.current();
+                byte[] bytes = new byte[32];
+                for (int i = 0; i < missing; i++) {
+                    random.nextBytes(bytes);
+                    deviceRegistry.register(platform, HexFormat.of().formatHex(bytes), Set.of("loadtest"));
+                }
+                log.info("Registered {} fake {} devices", missing, platform);
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import com.eatthepath.pushy.apns.server.MockApnsServer;
+import com.eatthepath.pushy.apns.server.MockApnsServerBuilder;
+import com.eatthepath.pushy.apns.server.PushNotificationHandler;
+import com.eatthepath.pushy.apns.server.RejectedNotificationException;
+import com.eatthepath.pushy.apns.server.RejectionReason;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerResponse;
+
+import javax.net.ssl.SSLException;
+import java.io.File;
+import java.security.cert.CertificateException;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The two APNs stand-ins: Pushy's {@link MockApnsServer} for the Pushy client, and a cleartext HTTP/2 server
+ * answering like APNs for the WebClient sender.
+ * <p>
+ * Pushy's mock handles a notification synchronously on the event loop of its connection, so its latency holds that
+ * connection; raise {@code apns.connections} along with {@code loadtest.apns-pushy.latency-ms}.
+ */
+public class MockApnsStandIns implements AutoCloseable {
+
+    private final SelfSignedCertificate certificate;
+    private final MockApnsServer pushyServer;
+    private final DisposableServer webClientServer;
+
+    public MockApnsStandIns(int pushyPort, MockBehavior pushyBehavior, int webClientPort, MockBehavior webClientBehavior)
+            throws CertificateException, SSLException, InterruptedException, ExecutionException {
+        certificate = new SelfSignedCertificate("localhost");
+        pushyServer = new MockApnsServerBuilder()
+                .setServerCredentials(certificate.certificate(), certificate.privateKey(), null)
+                .setHandlerFactory(sslSession -> pushyHandler(pushyBehavior))
+                .build();
+        pushyServer.start(pushyPort).get();
+
+        webClientServer = HttpServer.create()
+                .host("localhost")
+                .port(webClientPort)
+                .protocol(HttpProtocol.H2C)
+                .route(routes -> routes.post("/3/device/{token}", (request, response) -> request.receive().then()
+                        .then(Mono.delay(webClientBehavior.latency()))
+                        .then(Mono.defer(() -> switch (webClientBehavior.decide()) {
+                            case OK -> response.status(HttpResponseStatus.OK)
+                                    .header("apns-id", request.requestHeaders().get("apns-id", UUID.randomUUID().toString()))
+                                    .header("apns-unique-id", UUID.randomUUID().toString())
+                                    .send().then();
+                            case ERROR -> reject(response, HttpResponseStatus.INTERNAL_SERVER_ERROR, "InternalServerError");
+                            case THROTTLED -> reject(response, HttpResponseStatus.TOO_MANY_REQUESTS, "TooManyRequests");
+                        }))))
+                .bindNow();
+    }
+
+    private static PushNotificationHandler pushyHandler(MockBehavior behavior) {
+        return (headers, payload) -> {
+            try {
+                Thread.sleep(behavior.latency());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            switch (behavior.decide()) {
+                case ERROR -> throw new RejectedNotificationException(RejectionReason.INTERNAL_SERVER_ERROR);
+                case THROTTLED -> throw new RejectedNotificationException(RejectionReason.TOO_MANY_REQUESTS);
+                case OK -> {
+                }
+            }
+        };
+    }
+
+    private static Mono<Void> reject(HttpServerResponse response, HttpResponseStatus status, String reason) {
+        return response.status(status)
+                .header("content-type", "application/json")
+                .sendString(Mono.just("{\"reason\":\"" + reason + "\"}"))
+                .then();
+    }
+
+    /**
+     * Certificate of the Pushy stand-in, for the client trust store.
+     */
+    public File certificate() {
+        return certificate.certificate();
+    }
+
+    @Override
+    public void close() throws InterruptedException, ExecutionException {
+        webClientServer.disposeNow();
+        pushyServer.shutdown().get();
+        certificate.delete();
+    }
+}
@@ -0,0 +1,82 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How a stand-in answers: after {@code latency-ms} (plus up to {@code jitter-ms}), with a transient error for a
+ * {@code error-rate} fraction of the requests, and throttled above {@code rate-limit} requests per second.
+ * Configured under {@code loadtest.<stand-in>}.
+ */
+public class MockBehavior {
+
+    public enum Decision {
+        OK,
+        ERROR,
+        THROTTLED
+    }
+
+    private final String name;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double errorRate;
+    private final long rateLimit;
+
+    // requests of the current one second window
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicLong windowCount = new AtomicLong();
+
+    private final AtomicLong ok = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public MockBehavior(String name, long latencyMs, long jitterMs, double errorRate, long rateLimit) {
+        this.name = name;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        this.rateLimit = rateLimit;
+    }
+
+    public static MockBehavior from(Environment environment, String name) {
+        String prefix = "loadtest." + name + ".";
+        return new MockBehavior(name,
+                environment.getProperty(prefix + "latency-ms", Long.class, 0L),
+                environment.getProperty(prefix + "jitter-ms", Long.class, 0L),
+                environment.getProperty(prefix + "error-rate", Double.class, 0d),
+                environment.getProperty(prefix + "rate-limit", Long.class, 0L));
+    }
+
+    public Decision decide() {
+        if (rateLimit > 0) {
+            long second = System.nanoTime() / 1_000_000_000L;
+            if (window.getAndSet(second) != second) {
+                windowCount.set(0);
+            }
+            if (windowCount.incrementAndGet() > rateLimit) {
+                throttled.incrementAndGet();
+                return Decision.THROTTLED;
+            }
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            return Decision.ERROR;
+        }
+        ok.incrementAndGet();
+        return Decision.OK;
+    }
+
+    public Duration latency() {
+        return Duration.ofMillis(jitterMs > 0 ? latencyMs + ThreadLocalRandom.current().nextLong(jitterMs + 1) : latencyMs);
+    }
+
+    public Stats stats() {
+        return new Stats(name, ok.get(), errors.get(), throttled.get());
+    }
+
+    public record Stats(String name, long ok, long errors, long throttled) {
+    }
+}
@@ -0,0 +1,23 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+/**
+ * A load scenario: {@code rate} requests per second to one endpoint of this application during {@code durationSeconds}.
+ *
+ * @param path        path and query of the endpoint, e.g. {@code /notify/wild-pokemon}
+ * @param body        JSON request body, may be null
+ * @param maxInFlight requests waiting for an answer at most, ticks beyond it are dropped and reported
+ */
+public record Scenario(String method, String path, String body, double rate, int durationSeconds, int maxInFlight) {
+
+    public Scenario {
+        if (method == null) {
+            method = "GET";
+        }
+        if (rate <= 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("Scenario rate and duration must be positive");
+        }
+        if (maxInFlight <= 0) {
+            maxInFlight = 256;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.sfeir.lux.pokedexnotification.loadtest;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * @param dropped    requests the runner could not issue on time because {@code maxInFlight} were pending
+ * @param outcomes   HTTP status, or exception class, to number of requests
+ * @param throughput answered requests per second
+ */
+public record ScenarioReport(Scenario scenario, long sent, long dropped, Map<String, Long> outcomes, Duration elapsed, double throughput,
+                             double p50Ms, double p90Ms, double p99Ms, double p999Ms, double maxMs) {
+}
@@ -0,0 +1,31 @@
+package com.sfeir.lux.pokedexnotification.metrics;
+
+import com.sfeir.lux.pokedexnotification.apns.ApnsProviderTokenManager;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the provider token reuse and mint counts as cache hits and misses.
+ */
+@Component
+public class ApnsTokenMetrics implements MeterBinder {
+
+    private final ApnsProviderTokenManager tokenManager;
+
+    public ApnsTokenMetrics(ApnsProviderTokenManager tokenManager) {
+        this.tokenManager = tokenManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("apns.provider.token.cache", tokenManager, manager -> manager.stats().reused())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("apns.provider.token.cache", tokenManager, manager -> manager.stats().minted())
+                .tag("result", "miss")
+                .description("Provider tokens signed, by a request or by the background refresh")
+                .register(registry);
+    }
+}
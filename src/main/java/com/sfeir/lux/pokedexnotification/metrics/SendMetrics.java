@@ -0,0 +1,177 @@
+package com.sfeir.lux.pokedexnotification.metrics;
+
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.windowsazure.messaging.NotificationHubsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Latency, outcome and in-flight metrics of the calls made to the push providers.
+ * <p>
+ * {@code notification.send} times every provider call, tagged by provider, endpoint and outcome, with a percentile
+ * histogram. {@code notification.outcome} counts notifications by outcome and rejection reason, a multicast counting
+ * each of its targets, and {@code notification.in.flight} is the number of calls waiting for a provider answer.
+ * Meters are looked up once per tag combination, not built again on every call.
+ */
+@Component
+public class SendMetrics {
+
+    public static final String APNS = "apns";
+    public static final String FCM = "fcm";
+    public static final String AZURE = "azure";
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Map<CounterKey, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+    public SendMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @FunctionalInterface
+    public interface BlockingSend<T, E extends Exception> {
+        T send() throws E;
+    }
+
+    /**
+     * @param classifier outcome of a call that completed with a result, a call that completes empty is a
+     *                   {@link Outcome#success}, a call that errors is always an {@link Outcome#error}
+     */
+    public <T> Mono<T> record(String provider, String endpoint, Supplier<Mono<T>> send, Function<T, Outcome> classifier) {
+        return timed(provider, endpoint, send, result -> {
+            var outcome = result != null ? classifier.apply(result) : Outcome.success();
+            count(provider, endpoint, outcome, 1);
+            return outcome;
+        });
+    }
+
+    /**
+     * Records a call delivering to many targets at once, {@code counts} gives the number of notifications per outcome
+     * of a call that completed with a result.
+     */
+    public <T> Mono<T> recordBatch(String provider, String endpoint, Supplier<Mono<T>> send, Function<T, Map<Outcome, Long>> counts) {
+        return timed(provider, endpoint, send, result -> {
+            if (result != null) {
+                counts.apply(result).forEach((outcome, notifications) -> count(provider, endpoint, outcome, notifications));
+            }
+            return Outcome.success();
+        });
+    }
+
+    public <T, E extends Exception> T recordBlocking(String provider, String endpoint, BlockingSend<T, E> send) throws E {
+        return recordBlockingBatch(provider, endpoint, send, result -> Map.of(Outcome.success(), 1L));
+    }
+
+    public <T, E extends Exception> T recordBlockingBatch(String provider, String endpoint, BlockingSend<T, E> send, Function<T, Map<Outcome, Long>> counts) throws E {
+        var counter = inFlight(provider);
+        counter.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            T result = send.send();
+            counts.apply(result).forEach((outcome, notifications) -> count(provider, endpoint, outcome, notifications));
+            time(provider, endpoint, start, Outcome.success());
+            return result;
+        } catch (Exception e) {
+            failed(provider, endpoint, start, e);
+            throw e;
+        } finally {
+            counter.decrementAndGet();
+        }
+    }
+
+    // onResult gets null for a call that completed empty
+    private <T> Mono<T> timed(String provider, String endpoint, Supplier<Mono<T>> send, Function<T, Outcome> onResult) {
+        return Mono.defer(() -> {
+            var counter = inFlight(provider);
+            counter.incrementAndGet();
+            long start = System.nanoTime();
+            return send.get()
+                    .doOnSuccess(result -> time(provider, endpoint, start, onResult.apply(result)))
+                    .doOnError(e -> failed(provider, endpoint, start, e))
+                    .doFinally(signal -> counter.decrementAndGet());
+        });
+    }
+
+    private void count(String provider, String endpoint, Outcome outcome, long notifications) {
+        counters.computeIfAbsent(new CounterKey(provider, endpoint, outcome), key -> Counter.builder("notification.outcome")
+                        .tags("provider", provider, "endpoint", endpoint, "outcome", outcome.outcome(), "reason", outcome.reason())
+                        .register(registry))
+                .increment(notifications);
+    }
+
+    private void failed(String provider, String endpoint, long start, Throwable e) {
+        var outcome = Outcome.error(e);
+        count(provider, endpoint, outcome, 1);
+        time(provider, endpoint, start, outcome);
+    }
+
+    private void time(String provider, String endpoint, long start, Outcome outcome) {
+        // percentiles are computed from the histogram by the backend, client-side ones could not be aggregated
+        timers.computeIfAbsent(new TimerKey(provider, endpoint, outcome.outcome()), key -> Timer.builder("notification.send")
+                        .tags("provider", provider, "endpoint", endpoint, "outcome", outcome.outcome())
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private AtomicInteger inFlight(String provider) {
+        return inFlight.computeIfAbsent(provider, p -> {
+            var counter = new AtomicInteger();
+            Gauge.builder("notification.in.flight", counter, AtomicInteger::get)
+                    .tag("provider", p)
+                    .register(registry);
+            return counter;
+        });
+    }
+
+    private record CounterKey(String provider, String endpoint, Outcome outcome) {
+    }
+
+    private record TimerKey(String provider, String endpoint, String outcome) {
+    }
+
+    /**
+     * @param reason provider rejection reason or error code, {@code none} on success
+     */
+    public record Outcome(String outcome, String reason) {
+
+        public static Outcome success() {
+            return new Outcome("success", "none");
+        }
+
+        public static Outcome rejected(String reason) {
+            return new Outcome("rejected", reason);
+        }
+
+        public static Outcome error(Throwable e) {
+            return new Outcome("error", reason(Exceptions.unwrap(e)));
+        }
+
+        private static String reason(Throwable e) {
+            if (e instanceof FirebaseMessagingException messagingException && messagingException.getMessagingErrorCode() != null) {
+                return messagingException.getMessagingErrorCode().name();
+            }
+            if (e instanceof NotificationHubsException hubsException) {
+                return String.valueOf(hubsException.getHttpStatusCode());
+            }
+            if (e instanceof ResponseStatusException statusException) {
+                return String.valueOf(statusException.getStatusCode().value());
+            }
+            return e.getClass().getSimpleName();
+        }
+    }
+}
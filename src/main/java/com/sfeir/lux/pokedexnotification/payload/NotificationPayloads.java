@@ -0,0 +1,158 @@
+package com.sfeir.lux.pokedexnotification.payload;
+
+import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
+import com.google.gson.JsonObject;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Renders the "wild Pokemon" notification bodies.
+ * <p>
+ * They only differ by Pokemon and platform, so each one is serialised once, on first use, and then shared by every send.
+ * A Pokemon that is not a known id is rendered on every call.
+ */
+@Component
+public class NotificationPayloads {
+
+    public static final int POKEMON_COUNT = 1025;
+
+    public static final String TITLE = "A wild Pokemon Appear !";
+    public static final String BODY = "Click to see who it is";
+
+    private static final String[] POKEMON_IDS = new String[POKEMON_COUNT + 1];
+
+    static {
+        for (int id = 1; id <= POKEMON_COUNT; id++) {
+            POKEMON_IDS[id] = String.valueOf(id);
+        }
+    }
+
+    // racy but safe lazy init: entries are immutable and rendering twice gives the same result
+    private final RenderedPayload[][] payloads = new RenderedPayload[PayloadPlatform.values().length][POKEMON_COUNT + 1];
+    private final Object[] templateProperties = new Object[POKEMON_COUNT + 1];
+
+    public static int randomPokemonId() {
+        return ThreadLocalRandom.current().nextInt(POKEMON_COUNT) + 1;
+    }
+
+    public static String randomPokemon() {
+        return POKEMON_IDS[randomPokemonId()];
+    }
+
+    /**
+     * @return the given Pokemon, or a random one if null
+     */
+    public static String pokemonOrRandom(String pokemon) {
+        return pokemon != null ? pokemon : randomPokemon();
+    }
+
+    /**
+     * @param pokemon the Pokemon id, a random one if null
+     */
+    public RenderedPayload render(PayloadPlatform platform, String pokemon) {
+        int id = pokemon == null ? randomPokemonId() : parseId(pokemon);
+        if (id < 0) {
+            return RenderedPayload.of(renderJson(platform, pokemon));
+        }
+        var payload = payloads[platform.ordinal()][id];
+        if (payload == null) {
+            payload = RenderedPayload.of(renderJson(platform, POKEMON_IDS[id]));
+            payloads[platform.ordinal()][id] = payload;
+        }
+        return payload;
+    }
+
+    /**
+     * @param pokemon the Pokemon id, a random one if null
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> templateProperties(String pokemon) {
+        int id = pokemon == null ? randomPokemonId() : parseId(pokemon);
+        if (id < 0) {
+            return renderTemplateProperties(pokemon);
+        }
+        var properties = (Map<String, String>) templateProperties[id];
+        if (properties == null) {
+            properties = renderTemplateProperties(POKEMON_IDS[id]);
+            templateProperties[id] = properties;
+        }
+        return properties;
+    }
+
+    private static Map<String, String> renderTemplateProperties(String pokemon) {
+        return Map.of(
+                "title", TITLE,
+                "body", BODY,
+                "badge", "1",
+                "pokemon", pokemon
+        );
+    }
+
+    // the Pokemon is always a string, apps read it as one whether or not it was cached
+    private static String renderJson(PayloadPlatform platform, String pokemon) {
+        return switch (platform) {
+            case AZURE_FCM -> getFCMSend(pokemon).toString();
+            case AZURE_APNS -> getApsSend(pokemon, "1").toString();
+            case APNS -> getApsSend(pokemon, 1).toString();
+            case PUSHY -> getPushyPayload(pokemon);
+        };
+    }
+
+    private static JsonObject getFCMSend(String pokemon) {
+        JsonObject notification = new JsonObject();
+        JsonObject message = new JsonObject();
+        JsonObject data = new JsonObject();
+        JsonObject send = new JsonObject();
+        data.addProperty("pokemon", pokemon);
+        notification.addProperty("title", TITLE);
+        notification.addProperty("body", BODY);
+        message.add("notification", notification);
+        message.add("data", data);
+        send.add("message", message);
+        return send;
+    }
+
+    private static JsonObject getApsSend(String pokemon, Object badge) {
+        JsonObject alert = new JsonObject();
+        JsonObject aps = new JsonObject();
+        JsonObject send = new JsonObject();
+        send.addProperty("pokemon", pokemon);
+        alert.addProperty("title", TITLE);
+        alert.addProperty("body", BODY);
+        if (badge instanceof Number number)
+            aps.addProperty("badge", number);
+        else
+            aps.addProperty("badge", String.valueOf(badge));
+        aps.add("alert", alert);
+        send.add("aps", aps);
+        return send;
+    }
+
+    private static String getPushyPayload(String pokemon) {
+        return new SimpleApnsPayloadBuilder()
+                .setAlertTitle(TITLE)
+                .setAlertBody(BODY)
+                .setBadgeNumber(1)
+                .addCustomProperty("pokemon", pokemon)
+                .build();
+    }
+
+    // -1 if the value is not a known Pokemon id
+    private static int parseId(String pokemon) {
+        int length = pokemon.length();
+        if (length == 0 || length > 4) {
+            return -1;
+        }
+        int id = 0;
+        for (int i = 0; i < length; i++) {
+            char c = pokemon.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id >= 1 && id <= POKEMON_COUNT ? id : -1;
+    }
+}
@@ -0,0 +1,20 @@
+package com.sfeir.lux.pokedexnotification.payload;
+
+public enum PayloadPlatform {
+    /**
+     * FCM v1 message sent through the Azure notification hub.
+     */
+    AZURE_FCM,
+    /**
+     * APNs payload sent through the Azure notification hub.
+     */
+    AZURE_APNS,
+    /**
+     * APNs payload sent directly to Apple over HTTP/2.
+     */
+    APNS,
+    /**
+     * APNs payload built by Pushy.
+     */
+    PUSHY
+}
@@ -0,0 +1,13 @@
+package com.sfeir.lux.pokedexnotification.payload;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A serialised notification body, kept both as a string for the SDKs and as UTF-8 bytes for the raw HTTP/2 path.
+ */
+public record RenderedPayload(String json, byte[] bytes) {
+
+    public static RenderedPayload of(String json) {
+        return new RenderedPayload(json, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
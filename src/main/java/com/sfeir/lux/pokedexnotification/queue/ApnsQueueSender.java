@@ -0,0 +1,44 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import com.sfeir.lux.pokedexnotification.apns.ApnsFanOutService;
+import com.sfeir.lux.pokedexnotification.feedback.DeliveryFeedback;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.payload.PayloadPlatform;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+@Component
+public class ApnsQueueSender implements QueueSender {
+
+    // rejections that are about APNs or our provider token rather than about the notification
+    private static final Set<String> TRANSIENT_REASONS = Set.of("TooManyRequests", "InternalServerError", "ServiceUnavailable", "Shutdown", "ExpiredProviderToken");
+
+    private final ApnsFanOutService fanOutService;
+    private final NotificationPayloads payloads;
+    private final DeliveryFeedback deliveryFeedback;
+
+    public ApnsQueueSender(ApnsFanOutService fanOutService, NotificationPayloads payloads, DeliveryFeedback deliveryFeedback) {
+        this.fanOutService = fanOutService;
+        this.payloads = payloads;
+        this.deliveryFeedback = deliveryFeedback;
+    }
+
+    @Override
+    public NotificationProvider provider() {
+        return NotificationProvider.APNS;
+    }
+
+    @Override
+    public SendResult send(QueuedNotification notification) {
+        var outcome = fanOutService.send(notification.target(), payloads.render(PayloadPlatform.PUSHY, notification.pokemon()), ApnsFanOutService.Transport.PUSHY).block();
+        deliveryFeedback.onApnsOutcome(outcome);
+        return switch (outcome.status()) {
+            case ACCEPTED -> SendResult.delivered();
+            case FAILED -> SendResult.retry(null, outcome.reason());
+            case REJECTED -> TRANSIENT_REASONS.contains(outcome.reason())
+                    ? SendResult.retry(null, outcome.reason())
+                    : SendResult.rejected(outcome.reason());
+        };
+    }
+}
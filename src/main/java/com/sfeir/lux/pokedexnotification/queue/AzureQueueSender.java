@@ -0,0 +1,49 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import com.sfeir.lux.pokedexnotification.azure.AzureHubGateway;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.windowsazure.messaging.Notification;
+import com.windowsazure.messaging.NotificationHubsException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Exceptions;
+
+@Component
+public class AzureQueueSender implements QueueSender {
+
+    private final AzureHubGateway hubGateway;
+    private final NotificationPayloads payloads;
+
+    public AzureQueueSender(AzureHubGateway hubGateway, NotificationPayloads payloads) {
+        this.hubGateway = hubGateway;
+        this.payloads = payloads;
+    }
+
+    @Override
+    public NotificationProvider provider() {
+        return NotificationProvider.AZURE;
+    }
+
+    @Override
+    public SendResult send(QueuedNotification notification) {
+        var n = Notification.createTemplateNotification(payloads.templateProperties(notification.pokemon()));
+        try {
+            hubGateway.send("send-notification", hub -> hub.sendNotification(n, notification.target())).block();
+            return SendResult.delivered();
+        } catch (RuntimeException e) {
+            var error = Exceptions.unwrap(e);
+            if (error instanceof NotificationHubsException hubsException) {
+                int status = hubsException.getHttpStatusCode();
+                // throttled or hub unavailable, the SDK parses the Retry-After header of the response, in seconds
+                return status == 429 || status >= 500
+                        ? SendResult.retry(hubsException.getRetryAfter().orElse(null), hubsException.getMessage())
+                        : SendResult.rejected(hubsException.getMessage());
+            }
+            if (error instanceof ResponseStatusException) {
+                // bulkhead full or hub timeout
+                return SendResult.retry(null, error.getMessage());
+            }
+            throw e;
+        }
+    }
+}
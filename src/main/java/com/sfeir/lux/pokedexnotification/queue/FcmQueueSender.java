@@ -0,0 +1,80 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import com.google.firebase.ErrorCode;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.sfeir.lux.pokedexnotification.fcm.FcmMessages;
+import com.sfeir.lux.pokedexnotification.governor.RateGovernor;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+@Component
+public class FcmQueueSender implements QueueSender {
+
+    private static final Set<MessagingErrorCode> TRANSIENT_MESSAGING_ERRORS = Set.of(MessagingErrorCode.QUOTA_EXCEEDED, MessagingErrorCode.UNAVAILABLE, MessagingErrorCode.INTERNAL);
+    private static final Set<ErrorCode> TRANSIENT_ERRORS = Set.of(ErrorCode.RESOURCE_EXHAUSTED, ErrorCode.UNAVAILABLE, ErrorCode.INTERNAL, ErrorCode.DEADLINE_EXCEEDED);
+
+    private final ObjectFactory<FirebaseMessaging> messaging;
+    private final RateGovernor governor;
+    private final SendMetrics metrics;
+
+    public FcmQueueSender(ObjectFactory<FirebaseMessaging> messaging, TransportGovernors governors, SendMetrics metrics) {
+        this.messaging = messaging;
+        this.governor = governors.get(NotificationProvider.FCM);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public NotificationProvider provider() {
+        return NotificationProvider.FCM;
+    }
+
+    @Override
+    public SendResult send(QueuedNotification notification) {
+        var message = FcmMessages.wildPokemon(notification.pokemon())
+                .setTopic(notification.target())
+                .build();
+        try {
+            governor.throttle(() -> metrics.record(SendMetrics.FCM, "send",
+                    () -> Mono.fromCallable(() -> messaging.getObject().send(message)), messageId -> SendMetrics.Outcome.success())).block();
+            governor.onSuccess();
+            return SendResult.delivered();
+        } catch (RuntimeException wrapped) {
+            if (!(Exceptions.unwrap(wrapped) instanceof FirebaseMessagingException e)) {
+                throw wrapped;
+            }
+            if (e.getMessagingErrorCode() == MessagingErrorCode.QUOTA_EXCEEDED) {
+                governor.onThrottled();
+            }
+            boolean transientError = (e.getMessagingErrorCode() != null && TRANSIENT_MESSAGING_ERRORS.contains(e.getMessagingErrorCode()))
+                    || (e.getErrorCode() != null && TRANSIENT_ERRORS.contains(e.getErrorCode()));
+            return transientError ? SendResult.retry(retryAfter(e), e.getMessage()) : SendResult.rejected(e.getMessage());
+        }
+    }
+
+    // FCM sends a Retry-After header, in seconds, with 429 and 503 responses
+    private static Duration retryAfter(FirebaseMessagingException e) {
+        if (e.getHttpResponse() == null) {
+            return null;
+        }
+        Object header = e.getHttpResponse().getHeaders().get("retry-after");
+        if (header instanceof List<?> values && !values.isEmpty()) {
+            header = values.get(0);
+        }
+        try {
+            return header != null ? Duration.ofSeconds(Long.parseLong(header.toString().trim())) : null;
+        } catch (NumberFormatException ignored) {
+            // an HTTP date, fall back to the backoff
+            return null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+public enum NotificationProvider {
+    /**
+     * Target is an APNs device token.
+     */
+    APNS,
+    /**
+     * Target is an FCM topic.
+     */
+    FCM,
+    /**
+     * Target is a notification hub tag expression, sent as a template notification.
+     */
+    AZURE
+}
@@ -0,0 +1,264 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import com.google.gson.Gson;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accept-then-deliver queue: notifications are appended to a durable log and acknowledged right away, then
+ * delivered by a pool of worker threads per provider.
+ * <p>
+ * A failed delivery is retried with an exponential backoff with full jitter, or after the delay the provider asked
+ * for if it is longer, and dead-lettered after {@code queue.max-attempts}. Every state change appends the whole
+ * notification to the log, so pending notifications and their attempts survive a restart.
+ */
+@Service
+public class OutboundQueue implements DisposableBean {
+
+    static final byte MESSAGE = 1;
+    static final byte DONE = 2;
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueue.class);
+    private static final Gson GSON = new Gson();
+
+    private final SegmentedLog segmentedLog;
+    private final Path deadLetters;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final int concurrency;
+
+    private final Map<NotificationProvider, QueueSender> senders = new EnumMap<>(NotificationProvider.class);
+    private final Map<NotificationProvider, DelayQueue<Scheduled>> ready = new EnumMap<>(NotificationProvider.class);
+    // pending notification id -> segment holding its latest record
+    private final Map<Long, Long> segments = new HashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private long nextId;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    public OutboundQueue(List<QueueSender> queueSenders,
+                         @Value("${queue.directory:data/queue}") Path directory,
+                         @Value("${queue.segment-size:16777216}") int segmentSize,
+                         @Value("${queue.force-writes:false}") boolean forceWrites,
+                         @Value("${queue.max-attempts:8}") int maxAttempts,
+                         @Value("${queue.base-backoff-ms:500}") long baseBackoffMs,
+                         @Value("${queue.max-backoff-ms:300000}") long maxBackoffMs,
+                         @Value("${queue.concurrency:8}") int concurrency) throws IOException {
+        this.deadLetters = directory.resolve("dead-letters.ndjson");
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        for (NotificationProvider provider : NotificationProvider.values()) {
+            ready.put(provider, new DelayQueue<>());
+        }
+        queueSenders.forEach(sender -> senders.put(sender.provider(), sender));
+
+        Map<Long, QueuedNotification> pending = new HashMap<>();
+        this.segmentedLog = SegmentedLog.open(directory.resolve("segments"), segmentSize, forceWrites, (segment, body) -> {
+            byte type = body.get();
+            long id = body.getLong();
+            nextId = Math.max(nextId, id + 1);
+            if (type == MESSAGE) {
+                pending.put(id, QueuedNotification.decode(id, body));
+                segments.put(id, segment);
+            } else {
+                pending.remove(id);
+                segments.remove(id);
+            }
+        });
+        // once every segment is deleted the log no longer knows the last id, start above any id of a previous run,
+        // unless more than a thousand were handed out per millisecond
+        nextId = Math.max(nextId, System.currentTimeMillis() * 1000);
+        segments.values().forEach(segmentedLog::retain);
+        segmentedLog.deleteReleasedSegments();
+        pending.values().forEach(notification -> ready.get(notification.provider()).add(new Scheduled(notification)));
+        log.info("Outbound queue resumed with {} pending notifications", pending.size());
+        this.concurrency = concurrency;
+    }
+
+    // providers are only ready to send once the whole context is
+    @EventListener(ApplicationReadyEvent.class)
+    public void startWorkers() {
+        for (var provider : senders.keySet()) {
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(Thread.ofVirtual().name("queue-" + provider.name().toLowerCase() + "-", i).start(() -> work(provider)));
+            }
+        }
+    }
+
+    /**
+     * @param pokemon the Pokemon to announce, a random one if null, chosen now so retries announce the same one
+     */
+    public synchronized QueuedNotification enqueue(NotificationProvider provider, String target, String pokemon) {
+        if (!senders.containsKey(provider)) {
+            throw new IllegalArgumentException("No sender for " + provider);
+        }
+        long now = System.currentTimeMillis();
+        var notification = new QueuedNotification(nextId++, provider, target, NotificationPayloads.pokemonOrRandom(pokemon), 0, now, now);
+        segments.put(notification.id(), append(notification.encode()));
+        ready.get(provider).add(new Scheduled(notification));
+        return notification;
+    }
+
+    public QueueStats stats() {
+        Map<NotificationProvider, Integer> pending = new EnumMap<>(NotificationProvider.class);
+        ready.forEach((provider, queue) -> pending.put(provider, queue.size()));
+        int segmentCount;
+        synchronized (this) {
+            segmentCount = segmentedLog.segmentCount();
+        }
+        return new QueueStats(pending, delivered.get(), retried.get(), deadLettered.get(), segmentCount);
+    }
+
+    private void work(NotificationProvider provider) {
+        var sender = senders.get(provider);
+        var queue = ready.get(provider);
+        while (!Thread.currentThread().isInterrupted()) {
+            QueuedNotification notification;
+            try {
+                notification = queue.take().notification();
+            } catch (InterruptedException e) {
+                return;
+            }
+            SendResult result;
+            try {
+                result = sender.send(notification);
+            } catch (RuntimeException e) {
+                result = SendResult.retry(null, e.toString());
+            }
+            // a failed write would otherwise end the worker
+            try {
+                complete(notification, result);
+            } catch (RuntimeException e) {
+                log.error("Could not record the outcome of notification {}, it will be sent again after a restart", notification.id(), e);
+            }
+        }
+    }
+
+    private synchronized void complete(QueuedNotification notification, SendResult result) {
+        switch (result.outcome()) {
+            case DELIVERED -> {
+                done(notification);
+                delivered.incrementAndGet();
+            }
+            case REJECTED -> deadLetter(notification, result.detail());
+            case RETRY -> {
+                if (notification.attempts() + 1 >= maxAttempts) {
+                    deadLetter(notification, result.detail());
+                    return;
+                }
+                long delay = backoff(notification.attempts());
+                if (result.retryAfter() != null) {
+                    delay = Math.max(delay, result.retryAfter().toMillis());
+                }
+                var retry = notification.retry(System.currentTimeMillis() + delay);
+                long previous = segments.put(retry.id(), append(retry.encode()));
+                release(previous);
+                ready.get(retry.provider()).add(new Scheduled(retry));
+                retried.incrementAndGet();
+            }
+        }
+    }
+
+    // full jitter: uniform between 0 and the exponential backoff
+    private long backoff(int attempts) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempts, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void deadLetter(QueuedNotification notification, String reason) {
+        try {
+            Files.writeString(deadLetters, GSON.toJson(new DeadLetter(notification, reason, System.currentTimeMillis())) + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        done(notification);
+        deadLettered.incrementAndGet();
+        log.warn("Dead-lettered notification {} to {} {} after {} attempts: {}", notification.id(), notification.provider(), notification.target(), notification.attempts() + 1, reason);
+    }
+
+    private void done(QueuedNotification notification) {
+        var body = ByteBuffer.allocate(1 + Long.BYTES).put(DONE).putLong(notification.id()).array();
+        // a DONE record never needs to be kept for itself, only until the records it supersedes are deleted
+        release(append(body));
+        release(segments.remove(notification.id()));
+    }
+
+    private long append(byte[] body) {
+        try {
+            return segmentedLog.append(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void release(long segment) {
+        try {
+            segmentedLog.release(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        workers.forEach(Thread::interrupt);
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        synchronized (this) {
+            segmentedLog.close();
+        }
+    }
+
+    /**
+     * @param pending notifications waiting for their first or next attempt, per provider
+     */
+    public record QueueStats(Map<NotificationProvider, Integer> pending, long delivered, long retried, long deadLettered, int segments) {
+    }
+
+    private record DeadLetter(QueuedNotification notification, String reason, long deadLetteredAt) {
+    }
+
+    private record Scheduled(QueuedNotification notification) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(notification.notBefore() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(notification.notBefore(), ((Scheduled) other).notification.notBefore());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+/**
+ * Delivers queued notifications to one provider. Called from the queue worker threads, so it may block.
+ */
+public interface QueueSender {
+
+    NotificationProvider provider();
+
+    SendResult send(QueuedNotification notification);
+}
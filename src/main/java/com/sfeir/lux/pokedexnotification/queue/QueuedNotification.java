@@ -0,0 +1,47 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A "wild Pokemon" notification waiting in the outbound queue.
+ *
+ * @param attempts  failed delivery attempts so far
+ * @param notBefore epoch millis before which the notification must not be retried
+ */
+public record QueuedNotification(long id, NotificationProvider provider, String target, String pokemon, int attempts, long notBefore, long createdAt) {
+
+    QueuedNotification retry(long notBefore) {
+        return new QueuedNotification(id, provider, target, pokemon, attempts + 1, notBefore, createdAt);
+    }
+
+    byte[] encode() {
+        var targetBytes = SegmentedLog.field("target", target);
+        var pokemonBytes = SegmentedLog.field("pokemon", pokemon);
+        return ByteBuffer.allocate(1 + Long.BYTES + 1 + Integer.BYTES + 2 * Long.BYTES + 2 * Short.BYTES + targetBytes.length + pokemonBytes.length)
+                .put(OutboundQueue.MESSAGE)
+                .putLong(id)
+                .put((byte) provider.ordinal())
+                .putInt(attempts)
+                .putLong(notBefore)
+                .putLong(createdAt)
+                .putShort((short) targetBytes.length)
+                .put(targetBytes)
+                .putShort((short) pokemonBytes.length)
+                .put(pokemonBytes)
+                .array();
+    }
+
+    // the record type and id have already been read
+    static QueuedNotification decode(long id, ByteBuffer body) {
+        var provider = NotificationProvider.values()[body.get()];
+        int attempts = body.getInt();
+        long notBefore = body.getLong();
+        long createdAt = body.getLong();
+        var target = new byte[body.getShort() & 0xFFFF];
+        body.get(target);
+        var pokemon = new byte[body.getShort() & 0xFFFF];
+        body.get(pokemon);
+        return new QueuedNotification(id, provider, new String(target, StandardCharsets.UTF_8), new String(pokemon, StandardCharsets.UTF_8), attempts, notBefore, createdAt);
+    }
+}
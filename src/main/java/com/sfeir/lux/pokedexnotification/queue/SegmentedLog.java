@@ -0,0 +1,193 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log split in fixed size, memory-mapped segment files.
+ * <p>
+ * A record is its length, the CRC32 of its body and its body. Segments are zero-filled when created, so a zero length
+ * or a CRC mismatch marks the end of what was written before a crash. The owner retains a segment for each record it
+ * still needs and releases it once the record is superseded; segments are deleted oldest first once nothing retains
+ * them, so a record superseding an older one is always deleted after it. Not thread safe.
+ */
+public final class SegmentedLog implements Closeable {
+
+    /**
+     * Longest variable length field of a record body, whose length is written as an unsigned short.
+     */
+    public static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean force;
+    // segment id -> records retained in it
+    private final TreeMap<Long, Integer> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+
+    private long activeSegment;
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+
+    private SegmentedLog(Path directory, int segmentSize, boolean force) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.force = force;
+    }
+
+    /**
+     * @return the UTF-8 bytes of a record field
+     * @throws IllegalArgumentException if longer than {@link #MAX_FIELD_BYTES}, its length would wrap on replay
+     */
+    public static byte[] field(String name, String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException(name + " is longer than " + MAX_FIELD_BYTES + " bytes");
+        }
+        return bytes;
+    }
+
+    public static boolean fits(String value) {
+        return value == null || value.getBytes(StandardCharsets.UTF_8).length <= MAX_FIELD_BYTES;
+    }
+
+    /**
+     * @param replay called with the segment id and the body of every record, oldest first
+     */
+    public static SegmentedLog open(Path directory, int segmentSize, boolean force, BiConsumer<Long, ByteBuffer> replay) throws IOException {
+        Files.createDirectories(directory);
+        var log = new SegmentedLog(directory, segmentSize, force);
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .forEach(ids::add);
+        }
+        int end = 0;
+        for (long id : ids) {
+            log.segments.put(id, 0);
+            try (var channel = FileChannel.open(log.segment(id), StandardOpenOption.READ)) {
+                end = log.replaySegment(id, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), replay);
+            }
+        }
+        if (ids.isEmpty()) {
+            log.roll(0);
+        } else {
+            // keep appending to the last segment, right after its last valid record
+            long last = ids.get(ids.size() - 1);
+            log.activeSegment = last;
+            log.activeChannel = FileChannel.open(log.segment(last), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            log.active = log.activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            log.active.position(end);
+            // wipe a torn record so it is not mistaken for valid data after the next append
+            for (int i = end; i < Math.min(end + HEADER_SIZE, segmentSize); i++) {
+                log.active.put(i, (byte) 0);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @return the segment the record was written to, retained once for the caller
+     */
+    public long append(byte[] body) throws IOException {
+        if (HEADER_SIZE + body.length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + body.length + " bytes does not fit in a segment");
+        }
+        if (active.remaining() < HEADER_SIZE + body.length) {
+            roll(activeSegment + 1);
+        }
+        crc.reset();
+        crc.update(body);
+        int start = active.position();
+        // body and checksum first, the length last, so a torn write leaves a zero length
+        active.position(start + HEADER_SIZE);
+        active.put(body);
+        active.putInt(start + Integer.BYTES, (int) crc.getValue());
+        active.putInt(start, body.length);
+        if (force) {
+            active.force(start, HEADER_SIZE + body.length);
+        }
+        retain(activeSegment);
+        return activeSegment;
+    }
+
+    public void retain(long segment) {
+        segments.merge(segment, 1, Integer::sum);
+    }
+
+    public void release(long segment) throws IOException {
+        segments.computeIfPresent(segment, (id, count) -> count - 1);
+        deleteReleasedSegments();
+    }
+
+    public void deleteReleasedSegments() throws IOException {
+        while (segments.size() > 1 && segments.firstEntry().getValue() <= 0) {
+            long oldest = segments.pollFirstEntry().getKey();
+            Files.deleteIfExists(segment(oldest));
+        }
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        active.force();
+        activeChannel.close();
+    }
+
+    private int replaySegment(long id, ByteBuffer buffer, BiConsumer<Long, ByteBuffer> replay) {
+        var checksum = new CRC32();
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+            var body = buffer.slice(position + HEADER_SIZE, length);
+            checksum.reset();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            replay.accept(id, body);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private void roll(long id) throws IOException {
+        if (activeChannel != null) {
+            active.force();
+            activeChannel.close();
+        }
+        activeSegment = id;
+        segments.putIfAbsent(id, 0);
+        activeChannel = FileChannel.open(segment(id), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    private Path segment(long id) {
+        return directory.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+}
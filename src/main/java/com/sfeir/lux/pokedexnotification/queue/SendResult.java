@@ -0,0 +1,33 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import java.time.Duration;
+
+/**
+ * @param retryAfter delay asked by the provider before retrying, null if it did not ask for one
+ */
+public record SendResult(Outcome outcome, Duration retryAfter, String detail) {
+
+    public enum Outcome {
+        DELIVERED,
+        /**
+         * Transient failure, throttling or provider outage.
+         */
+        RETRY,
+        /**
+         * Permanent failure, retrying would not help.
+         */
+        REJECTED
+    }
+
+    public static SendResult delivered() {
+        return new SendResult(Outcome.DELIVERED, null, null);
+    }
+
+    public static SendResult retry(Duration retryAfter, String detail) {
+        return new SendResult(Outcome.RETRY, retryAfter, detail);
+    }
+
+    public static SendResult rejected(String detail) {
+        return new SendResult(Outcome.REJECTED, null, detail);
+    }
+}
@@ -0,0 +1,16 @@
+package com.sfeir.lux.pokedexnotification.registry;
+
+public enum DevicePlatform {
+    /**
+     * Apple device token, reached directly through APNs.
+     */
+    APNS,
+    /**
+     * FCM registration token, reached directly through Firebase.
+     */
+    FCM,
+    /**
+     * FCM registration token, reached through the Azure notification hub.
+     */
+    AZURE
+}
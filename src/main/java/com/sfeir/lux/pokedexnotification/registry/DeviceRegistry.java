@@ -0,0 +1,634 @@
+package com.sfeir.lux.pokedexnotification.registry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Device tokens per platform with their topic membership.
+ * <p>
+ * Every change is appended to a log file which is replayed on startup. The log is rewritten with only the
+ * registered devices when it holds more than twice as many records as there are devices, on startup or as soon as
+ * the unregistered devices reach that share. At runtime the log is rewritten in the background: the devices are
+ * copied a batch at a time, then the changes made meanwhile are appended and the new log swapped in. A topic bit no registered device uses anymore is freed when the log is
+ * rewritten, or when a new topic needs one, so only topics in use count towards {@link #MAX_TOPICS}.
+ */
+public class DeviceRegistry implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    // topic membership is a 64 bits mask per device
+    public static final int MAX_TOPICS = Long.SIZE;
+    public static final int MAX_TOPIC_LENGTH = 256;
+
+    private static final byte REGISTER = 1;
+    private static final byte UNREGISTER = 2;
+    private static final int STREAM_BATCH_SIZE = 1024;
+    // below this, rewriting a log on every few changes would cost more than its replay
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    // large enough for the biggest record: a 4 KiB token and 64 topics of 256 characters
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final Path file;
+    private final Map<DevicePlatform, DeviceTable> tables = new EnumMap<>(DevicePlatform.class);
+    // topic name per bit, null for a free bit
+    private final List<String> topics = new ArrayList<>();
+    private final Map<String, Integer> topicBits = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<UnregisterListener> unregisterListeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("device-registry-compaction").daemon().factory());
+    private DataOutputStream out;
+    private long records;
+    // records written while the log is compacted in the background, null when it is not
+    private ByteArrayOutputStream compactionTail;
+    private long compactionTailRecords;
+
+    private DeviceRegistry(Path file) {
+        this.file = file;
+        for (DevicePlatform platform : DevicePlatform.values()) {
+            tables.put(platform, new DeviceTable());
+        }
+    }
+
+    public static DeviceRegistry open(Path file) throws IOException {
+        var registry = new DeviceRegistry(file);
+        long start = System.nanoTime();
+        if (Files.exists(file)) {
+            registry.replay();
+        } else if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (registry.needsCompaction()) {
+            registry.compact();
+        }
+        registry.out = registry.openLog();
+        log.info("Loaded {} devices from {} in {} ms", registry.live(), file, (System.nanoTime() - start) / 1_000_000);
+        return registry;
+    }
+
+    public boolean register(DevicePlatform platform, String token, Set<String> topics) {
+        var bytes = encode(token);
+        lock.writeLock().lock();
+        try {
+            boolean changed = tables.get(platform).register(bytes, topicMask(topics, true));
+            if (changed) {
+                write(REGISTER, platform, bytes, topics);
+            }
+            return changed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean unregister(DevicePlatform platform, String token) {
+        var bytes = encode(token);
+        int id;
+        lock.writeLock().lock();
+        try {
+            var table = tables.get(platform);
+            id = table.entry(bytes);
+            if (id < 0) {
+                return false;
+            }
+            table.unregister(bytes);
+            write(UNREGISTER, platform, bytes, Set.of());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // outside the lock, listeners take their own locks and call back into the registry
+        unregisterListeners.forEach(listener -> listener.unregistered(platform, token, id));
+        return true;
+    }
+
+    /**
+     * The listener is called after a device is unregistered, not on replay, with the id the device had. The id is
+     * reused if the same token registers again, possibly before the listener is called.
+     */
+    public void addUnregisterListener(UnregisterListener listener) {
+        unregisterListeners.add(listener);
+    }
+
+    public void removeUnregisterListener(UnregisterListener listener) {
+        unregisterListeners.remove(listener);
+    }
+
+    public boolean contains(DevicePlatform platform, String token) {
+        var bytes = encode(token);
+        lock.readLock().lock();
+        try {
+            return tables.get(platform).topicMask(bytes) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the topics of the device, null if it is not registered
+     */
+    public Set<String> topics(DevicePlatform platform, String token) {
+        var bytes = encode(token);
+        lock.readLock().lock();
+        try {
+            long mask = tables.get(platform).topicMask(bytes);
+            return mask < 0 ? null : topicNames(mask);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(DevicePlatform platform) {
+        lock.readLock().lock();
+        try {
+            return tables.get(platform).live();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lazily walks the registered tokens, devices registered while walking may or may not be seen.
+     *
+     * @param topic only the devices of this topic, all of them if null
+     */
+    public Stream<String> stream(DevicePlatform platform, String topic) {
+        long mask;
+        lock.readLock().lock();
+        try {
+            if (topic == null) {
+                mask = -1;
+            } else if (topicBits.containsKey(topic)) {
+                mask = 1L << topicBits.get(topic);
+            } else {
+                return Stream.empty();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return StreamSupport.stream(new TokenSpliterator(tables.get(platform), mask), false);
+    }
+
+    /**
+     * Number of the device in its platform, stable until the registry is reopened, so it can index other structures.
+     *
+     * @return the id of the device, -1 if it is not registered
+     */
+    public int id(DevicePlatform platform, String token) {
+        var bytes = encode(token);
+        lock.readLock().lock();
+        try {
+            return tables.get(platform).entry(bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the upper bound, exclusive, of the device ids of the platform
+     */
+    public int idBound(DevicePlatform platform) {
+        lock.readLock().lock();
+        try {
+            return tables.get(platform).size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the token of the device, null if it is not registered anymore
+     */
+    public String token(DevicePlatform platform, int id) {
+        lock.readLock().lock();
+        try {
+            var table = tables.get(platform);
+            return id >= 0 && id < table.size() && table.isLive(id) ? table.token(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lazily resolves device ids to their tokens, skipping the devices unregistered since.
+     *
+     * @param ids ascending device ids
+     */
+    public Stream<String> resolve(DevicePlatform platform, PrimitiveIterator.OfInt ids) {
+        return StreamSupport.stream(new IdSpliterator(tables.get(platform), ids), false);
+    }
+
+    public List<String> tokens(DevicePlatform platform, String topic) {
+        try (var tokens = stream(platform, topic)) {
+            return tokens.toList();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            if (!compactor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Closing {} while it is still being compacted", file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            out.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int live() {
+        return tables.values().stream().mapToInt(DeviceTable::live).sum();
+    }
+
+    private long topicMask(Set<String> names, boolean create) {
+        long mask = 0;
+        for (String name : names) {
+            Integer bit = topicBits.get(name);
+            if (bit == null && create) {
+                if (name.isEmpty() || name.length() > MAX_TOPIC_LENGTH) {
+                    throw new IllegalArgumentException("Invalid topic name length " + name.length());
+                }
+                bit = topics.indexOf(null);
+                if (bit < 0 && topics.size() == MAX_TOPICS && reclaimTopics(mask) > 0) {
+                    bit = topics.indexOf(null);
+                }
+                if (bit >= 0) {
+                    topics.set(bit, name);
+                } else if (topics.size() < MAX_TOPICS) {
+                    bit = topics.size();
+                    topics.add(name);
+                } else {
+                    throw new IllegalArgumentException("Cannot register more than " + MAX_TOPICS + " topics");
+                }
+                topicBits.put(name, bit);
+            }
+            if (bit != null) {
+                mask |= 1L << bit;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Frees the bits of the topics no registered device has. Unregistered devices may still carry them in their
+     * mask, which is replaced when they register again.
+     *
+     * @param reserved bits to keep, those of the device being registered
+     * @return the number of freed bits
+     */
+    private int reclaimTopics(long reserved) {
+        long used = reserved;
+        for (var table : tables.values()) {
+            for (int entry = 0; entry < table.size(); entry++) {
+                if (table.isLive(entry)) {
+                    used |= table.topicMask(entry);
+                }
+            }
+        }
+        int freed = 0;
+        for (int bit = 0; bit < topics.size(); bit++) {
+            if (topics.get(bit) != null && (used & (1L << bit)) == 0) {
+                topicBits.remove(topics.set(bit, null));
+                freed++;
+            }
+        }
+        return freed;
+    }
+
+    private Set<String> topicNames(long mask) {
+        Set<String> names = new LinkedHashSet<>();
+        for (int bit = 0; bit < topics.size(); bit++) {
+            if ((mask & (1L << bit)) != 0 && topics.get(bit) != null) {
+                names.add(topics.get(bit));
+            }
+        }
+        return names;
+    }
+
+    private void write(byte operation, DevicePlatform platform, byte[] token, Set<String> topics) {
+        try {
+            writeRecord(out, operation, platform, token, topics);
+            out.flush();
+            records++;
+            if (compactionTail != null) {
+                writeRecord(new DataOutputStream(compactionTail), operation, platform, token, topics);
+                compactionTailRecords++;
+            } else if (needsCompaction() && !compactor.isShutdown()) {
+                // not on the writer's thread, which may be an event loop
+                compactionTail = new ByteArrayOutputStream();
+                compactionTailRecords = 0;
+                compactor.execute(this::compactInBackground);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not compact {}", file, e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                compactionTail = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean needsCompaction() {
+        return records > MIN_COMPACTION_RECORDS && records > 2L * live();
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    private static void writeRecord(DataOutputStream out, byte operation, DevicePlatform platform, byte[] token, Set<String> topics) throws IOException {
+        out.writeByte(operation);
+        out.writeByte(platform.ordinal());
+        out.writeShort(token.length);
+        out.write(token);
+        if (operation == REGISTER) {
+            out.writeByte(topics.size());
+            for (String topic : topics) {
+                var name = topic.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long consumed = 0;
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                while (true) {
+                    int start = buffer.position();
+                    if (!replayRecord(buffer)) {
+                        buffer.position(start);
+                        break;
+                    }
+                    consumed += buffer.position() - start;
+                    records++;
+                }
+                buffer.compact();
+            }
+            if (buffer.position() > 0) {
+                // the last record was only partially written before a crash, drop it
+                log.warn("Truncating incomplete record at the end of {}", file);
+                channel.truncate(consumed);
+            }
+        }
+    }
+
+    // false if the buffer doesn't hold the whole record
+    private boolean replayRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return false;
+        }
+        byte operation = buffer.get();
+        var table = tables.get(DevicePlatform.values()[buffer.get()]);
+        var token = new byte[buffer.getShort() & 0xFFFF];
+        if (buffer.remaining() < token.length) {
+            return false;
+        }
+        buffer.get(token);
+        if (operation == UNREGISTER) {
+            table.unregister(token);
+            return true;
+        }
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = buffer.get() & 0xFF; i > 0; i--) {
+            if (buffer.remaining() < 2) {
+                return false;
+            }
+            var name = new byte[buffer.getShort() & 0xFFFF];
+            if (buffer.remaining() < name.length) {
+                return false;
+            }
+            buffer.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        table.register(token, topicMask(names, true));
+        return true;
+    }
+
+    /**
+     * Rewrites the log with the registered devices, holding the lock only to copy a batch of them and to swap the
+     * logs. A device changed while the batches are copied may be copied in its old or new state, either way the
+     * change is also in the tail appended after the copy, which replay applies last.
+     */
+    private void compact() throws IOException {
+        var tmp = file.resolveSibling(file.getFileName() + ".compact");
+        int freed;
+        lock.writeLock().lock();
+        try {
+            freed = reclaimTopics(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long written = 0;
+        var batch = new ByteArrayOutputStream(1 << 16);
+        try (var compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            for (var platform : DevicePlatform.values()) {
+                var entries = tables.get(platform);
+                int next = 0;
+                boolean more = true;
+                while (more) {
+                    batch.reset();
+                    var batchOut = new DataOutputStream(batch);
+                    lock.readLock().lock();
+                    try {
+                        for (int end = Math.min(next + STREAM_BATCH_SIZE, entries.size()); next < end; next++) {
+                            if (entries.isLive(next)) {
+                                writeRecord(batchOut, REGISTER, platform, encode(entries.token(next)), topicNames(entries.topicMask(next)));
+                                written++;
+                            }
+                        }
+                        more = next < entries.size();
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    batch.writeTo(compacted);
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                if (compactionTail != null) {
+                    compactionTail.writeTo(compacted);
+                    written += compactionTailRecords;
+                    compactionTail = null;
+                }
+                compacted.close();
+                swap(tmp);
+                log.info("Compacted {} from {} to {} records, freed {} topics", file, records, written, freed);
+                records = written;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // called with the write lock held, out is null while the registry is opened
+    private void swap(Path compacted) throws IOException {
+        if (out == null) {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        out.close();
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            out = openLog();
+        }
+    }
+
+    private static byte[] encode(String token) {
+        if (token.isEmpty() || token.length() > DeviceTable.MAX_TOKEN_LENGTH) {
+            throw new IllegalArgumentException("Invalid device token length " + token.length());
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) > 0x7F) {
+                throw new IllegalArgumentException("Device token must be ASCII");
+            }
+        }
+        return token.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @FunctionalInterface
+    public interface UnregisterListener {
+        void unregistered(DevicePlatform platform, String token, int id);
+    }
+
+    private final class IdSpliterator extends Spliterators.AbstractSpliterator<String> {
+
+        private final DeviceTable table;
+        private final PrimitiveIterator.OfInt ids;
+        private final ArrayDeque<String> buffer = new ArrayDeque<>(STREAM_BATCH_SIZE);
+
+        private IdSpliterator(DeviceTable table, PrimitiveIterator.OfInt ids) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.table = table;
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (buffer.isEmpty()) {
+                fill();
+            }
+            var token = buffer.poll();
+            if (token == null) {
+                return false;
+            }
+            action.accept(token);
+            return true;
+        }
+
+        private void fill() {
+            lock.readLock().lock();
+            try {
+                while (buffer.size() < STREAM_BATCH_SIZE && ids.hasNext()) {
+                    int entry = ids.nextInt();
+                    if (entry < table.size() && table.isLive(entry)) {
+                        buffer.add(table.token(entry));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private final class TokenSpliterator extends Spliterators.AbstractSpliterator<String> {
+
+        private final DeviceTable table;
+        private final long mask;
+        private final ArrayDeque<String> buffer = new ArrayDeque<>(STREAM_BATCH_SIZE);
+        private int next;
+
+        private TokenSpliterator(DeviceTable table, long mask) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.table = table;
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (buffer.isEmpty()) {
+                fill();
+            }
+            var token = buffer.poll();
+            if (token == null) {
+                return false;
+            }
+            action.accept(token);
+            return true;
+        }
+
+        // copies the next batch under the read lock so writers are only held for one batch
+        private void fill() {
+            lock.readLock().lock();
+            try {
+                while (buffer.size() < STREAM_BATCH_SIZE && next < table.size()) {
+                    int entry = next++;
+                    if (table.isLive(entry) && (mask == -1 || (table.topicMask(entry) & mask) != 0)) {
+                        buffer.add(table.token(entry));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
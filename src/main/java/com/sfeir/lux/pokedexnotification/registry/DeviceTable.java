@@ -0,0 +1,181 @@
+package com.sfeir.lux.pokedexnotification.registry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Tokens of one platform, packed to keep the heap overhead per device low.
+ * <p>
+ * Token bytes are appended, prefixed by their length, to large shared chunks instead of living in one object each.
+ * An entry is its location in the chunks and its topic bitmask; entries are found by an open addressing index of
+ * entry numbers. Unregistered entries keep their slot and are only flagged, the slot is reused if the same token
+ * registers again; the table only shrinks when the registry is reopened from its compacted log. Not thread safe,
+ * the registry guards it.
+ */
+final class DeviceTable {
+
+    static final int MAX_TOKEN_LENGTH = 4096;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private byte[][] chunks = new byte[8][];
+    private int chunkCount;
+    private int chunkPosition = CHUNK_SIZE;
+
+    // chunk number << 32 | offset in chunk
+    private long[] locations = new long[1024];
+    private long[] topicMasks = new long[1024];
+    private final BitSet removed = new BitSet();
+    private int size;
+    private int live;
+
+    // entry number + 1, 0 for a free slot
+    private int[] index = new int[2048];
+
+    int size() {
+        return size;
+    }
+
+    int live() {
+        return live;
+    }
+
+    /**
+     * @return true if the token was not registered or had different topics
+     */
+    boolean register(byte[] token, long topicMask) {
+        int entry = find(token);
+        if (entry >= 0) {
+            boolean changed = removed.get(entry) || topicMasks[entry] != topicMask;
+            if (removed.get(entry)) {
+                removed.clear(entry);
+                live++;
+            }
+            topicMasks[entry] = topicMask;
+            return changed;
+        }
+        if ((size + 1) * 2 > index.length) {
+            resizeIndex();
+        }
+        entry = size++;
+        if (entry == locations.length) {
+            locations = Arrays.copyOf(locations, entry * 2);
+            topicMasks = Arrays.copyOf(topicMasks, entry * 2);
+        }
+        locations[entry] = append(token);
+        topicMasks[entry] = topicMask;
+        live++;
+        insertIntoIndex(entry, hash(token, 0, token.length));
+        return true;
+    }
+
+    /**
+     * @return true if the token was registered
+     */
+    boolean unregister(byte[] token) {
+        int entry = find(token);
+        if (entry < 0 || removed.get(entry)) {
+            return false;
+        }
+        removed.set(entry);
+        live--;
+        return true;
+    }
+
+    /**
+     * @return the topic mask of the token, -1 if it is not registered
+     */
+    long topicMask(byte[] token) {
+        int entry = find(token);
+        return entry < 0 || removed.get(entry) ? -1 : topicMasks[entry];
+    }
+
+    /**
+     * @return the entry of the token, -1 if it is not registered
+     */
+    int entry(byte[] token) {
+        int entry = find(token);
+        return entry < 0 || removed.get(entry) ? -1 : entry;
+    }
+
+    boolean isLive(int entry) {
+        return !removed.get(entry);
+    }
+
+    long topicMask(int entry) {
+        return topicMasks[entry];
+    }
+
+    String token(int entry) {
+        byte[] chunk = chunks[(int) (locations[entry] >>> 32)];
+        int offset = (int) locations[entry];
+        return new String(chunk, offset + 2, length(chunk, offset), StandardCharsets.ISO_8859_1);
+    }
+
+    private int find(byte[] token) {
+        int mask = index.length - 1;
+        for (int slot = hash(token, 0, token.length) & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (matches(entry, token)) {
+                return entry;
+            }
+        }
+    }
+
+    private boolean matches(int entry, byte[] token) {
+        byte[] chunk = chunks[(int) (locations[entry] >>> 32)];
+        int offset = (int) locations[entry];
+        return length(chunk, offset) == token.length
+                && Arrays.equals(chunk, offset + 2, offset + 2 + token.length, token, 0, token.length);
+    }
+
+    private long append(byte[] token) {
+        if (chunkPosition + 2 + token.length > CHUNK_SIZE) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = new byte[CHUNK_SIZE];
+            chunkPosition = 0;
+        }
+        byte[] chunk = chunks[chunkCount - 1];
+        int offset = chunkPosition;
+        chunk[offset] = (byte) (token.length >>> 8);
+        chunk[offset + 1] = (byte) token.length;
+        System.arraycopy(token, 0, chunk, offset + 2, token.length);
+        chunkPosition += 2 + token.length;
+        return ((long) (chunkCount - 1) << 32) | offset;
+    }
+
+    private void resizeIndex() {
+        index = new int[index.length * 2];
+        for (int entry = 0; entry < size; entry++) {
+            byte[] chunk = chunks[(int) (locations[entry] >>> 32)];
+            int offset = (int) locations[entry];
+            insertIntoIndex(entry, hash(chunk, offset + 2, length(chunk, offset)));
+        }
+    }
+
+    private void insertIntoIndex(int entry, int hash) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry + 1;
+    }
+
+    private static int length(byte[] chunk, int offset) {
+        return ((chunk[offset] & 0xFF) << 8) | (chunk[offset + 1] & 0xFF);
+    }
+
+    private static int hash(byte[] bytes, int from, int length) {
+        int h = 0x811C9DC5;
+        for (int i = from; i < from + length; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,275 @@
+package com.sfeir.lux.pokedexnotification.schedule;
+
+import com.sfeir.lux.pokedexnotification.dispatch.NotificationDispatcher;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.sfeir.lux.pokedexnotification.queue.OutboundQueue;
+import com.sfeir.lux.pokedexnotification.queue.SegmentedLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delayed notifications, held in a {@link TimingWheel} ticked by a single thread, whatever their number.
+ * <p>
+ * Pending notifications are appended to a durable log and replayed on startup, a notification overdue after a
+ * restart is released right away. Due notifications wait in a release buffer drained every tick: when a large batch
+ * comes due at once, it is spread evenly over {@code schedule.spread-ms} instead of hitting the providers in one
+ * burst. The log record of a released notification is only released once the notification is in the outbound queue,
+ * or once its campaign is dispatched: a failed hand-off stays in the log and is released again after a restart, so
+ * every notification is delivered at least once.
+ */
+@Service
+public class NotificationScheduler implements DisposableBean {
+
+    static final byte SCHEDULED = 1;
+    static final byte DONE = 2;
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationScheduler.class);
+    private static final Comparator<ScheduledNotification> DUE_ORDER =
+            Comparator.comparingLong(ScheduledNotification::dueAt).thenComparingLong(ScheduledNotification::id);
+
+    private final OutboundQueue outboundQueue;
+    private final NotificationDispatcher dispatcher;
+    private final SegmentedLog segmentedLog;
+    private final TimingWheel<Pending> wheel;
+    private final long tickMs;
+    private final long spreadMs;
+    private final int minBatch;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("notification-scheduler").daemon().factory());
+
+    // scheduled notification id -> its timeout, until released or cancelled
+    private final Map<Long, TimingWheel.Timeout<Pending>> pending = new HashMap<>();
+    private final ArrayDeque<Pending> due = new ArrayDeque<>();
+    private int releasePerTick;
+    private long nextId;
+
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    public NotificationScheduler(OutboundQueue outboundQueue, NotificationDispatcher dispatcher,
+                                 @Value("${schedule.directory:data/schedule}") Path directory,
+                                 @Value("${schedule.segment-size:16777216}") int segmentSize,
+                                 @Value("${schedule.force-writes:false}") boolean forceWrites,
+                                 @Value("${schedule.tick-ms:100}") long tickMs,
+                                 @Value("${schedule.wheel-size:4096}") int wheelSize,
+                                 @Value("${schedule.spread-ms:1000}") long spreadMs,
+                                 @Value("${schedule.min-batch:100}") int minBatch) throws IOException {
+        this.outboundQueue = outboundQueue;
+        this.dispatcher = dispatcher;
+        this.tickMs = tickMs;
+        this.spreadMs = spreadMs;
+        this.minBatch = minBatch;
+        this.wheel = new TimingWheel<>(tickMs, wheelSize, System.currentTimeMillis());
+
+        Map<Long, Pending> replayed = new HashMap<>();
+        this.segmentedLog = SegmentedLog.open(directory.resolve("segments"), segmentSize, forceWrites, (segment, body) -> {
+            byte type = body.get();
+            long id = body.getLong();
+            nextId = Math.max(nextId, id + 1);
+            if (type == SCHEDULED) {
+                replayed.put(id, new Pending(ScheduledNotification.decode(id, body), segment));
+            } else {
+                replayed.remove(id);
+            }
+        });
+        // ids of a previous run may still be cancelled by a stale request, never hand them out again even once the
+        // log no longer holds them
+        nextId = Math.max(nextId, System.currentTimeMillis() * 1000);
+        replayed.values().forEach(entry -> {
+            segmentedLog.retain(entry.segment());
+            pending.put(entry.notification().id(), wheel.schedule(entry, entry.notification().dueAt()));
+        });
+        segmentedLog.deleteReleasedSegments();
+        log.info("Scheduler resumed with {} pending notifications", pending.size());
+    }
+
+    // releases go to the queue and the dispatcher, which are only ready once the whole context is
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        ticker.scheduleAtFixedRate(() -> {
+            // an exception would cancel every later tick
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                log.error("Scheduler tick failed", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param provider null for a campaign to every platform, {@code target} being the topic
+     * @param pokemon  the Pokemon to announce, a random one if null, chosen now so the schedule shows it
+     */
+    public synchronized ScheduledNotification schedule(NotificationProvider provider, String target, String pokemon, Instant dueAt) {
+        var notification = new ScheduledNotification(nextId++, provider, target, NotificationPayloads.pokemonOrRandom(pokemon), dueAt.toEpochMilli(), System.currentTimeMillis());
+        var entry = new Pending(notification, append(notification.encode()));
+        pending.put(notification.id(), wheel.schedule(entry, notification.dueAt()));
+        return notification;
+    }
+
+    /**
+     * @return the cancelled notification, empty if unknown or already due
+     */
+    public synchronized Optional<ScheduledNotification> cancel(long id) {
+        var timeout = pending.get(id);
+        if (timeout == null || !wheel.cancel(timeout)) {
+            return Optional.empty();
+        }
+        pending.remove(id);
+        done(timeout.value());
+        cancelled.incrementAndGet();
+        return Optional.of(timeout.value().notification());
+    }
+
+    public synchronized Optional<ScheduledNotification> get(long id) {
+        return Optional.ofNullable(pending.get(id)).map(timeout -> timeout.value().notification());
+    }
+
+    /**
+     * @param target only the notifications to this target, all of them if null
+     * @return up to {@code limit} pending notifications, earliest due first
+     */
+    public List<ScheduledNotification> list(String target, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        // the latest of the earliest ones on top, so the pending notifications are never all sorted under the lock
+        PriorityQueue<ScheduledNotification> earliest;
+        synchronized (this) {
+            earliest = new PriorityQueue<>(Math.min(limit, pending.size()) + 1, DUE_ORDER.reversed());
+            for (var timeout : pending.values()) {
+                var notification = timeout.value().notification();
+                if (target != null && !target.equals(notification.target())) {
+                    continue;
+                }
+                if (earliest.size() < limit) {
+                    earliest.add(notification);
+                } else if (DUE_ORDER.compare(notification, earliest.peek()) < 0) {
+                    earliest.poll();
+                    earliest.add(notification);
+                }
+            }
+        }
+        List<ScheduledNotification> list = new ArrayList<>(earliest);
+        list.sort(DUE_ORDER);
+        return list;
+    }
+
+    public synchronized ScheduleStats stats() {
+        return new ScheduleStats(pending.size(), due.size(), releasePerTick, released.get(), cancelled.get(), segmentedLog.segmentCount());
+    }
+
+    private void tick() {
+        List<Pending> batch;
+        synchronized (this) {
+            int before = due.size();
+            wheel.advance(System.currentTimeMillis(), entry -> {
+                pending.remove(entry.notification().id());
+                due.add(entry);
+            });
+            if (due.size() > before) {
+                // enough per tick to drain everything due within the spread window, evenly
+                long ticks = Math.max(1, spreadMs / tickMs);
+                releasePerTick = (int) Math.max(releasePerTick, Math.max(minBatch, Math.ceilDiv(due.size(), ticks)));
+            }
+            batch = new ArrayList<>(Math.min(due.size(), releasePerTick));
+            while (batch.size() < releasePerTick && !due.isEmpty()) {
+                batch.add(due.poll());
+            }
+            if (due.isEmpty()) {
+                releasePerTick = 0;
+            }
+        }
+        for (var entry : batch) {
+            var notification = entry.notification();
+            handOff(notification).subscribe(null,
+                    e -> log.warn("Could not release scheduled notification {}, it will be released again after a restart", notification.id(), e),
+                    () -> {
+                        try {
+                            synchronized (this) {
+                                done(entry);
+                            }
+                            released.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            log.warn("Could not record the release of scheduled notification {}, it will be released again after a restart", notification.id(), e);
+                        }
+                    });
+        }
+    }
+
+    // completes once the notification is in the outbound queue, or once the campaign is dispatched
+    private Mono<Void> handOff(ScheduledNotification notification) {
+        if (notification.provider() != null) {
+            return Mono.fromRunnable(() -> outboundQueue.enqueue(notification.provider(), notification.target(), notification.pokemon()));
+        }
+        return Mono.defer(() -> dispatcher.dispatch(notification.pokemon(), notification.target(), Set.of())).then();
+    }
+
+    private void done(Pending entry) {
+        var body = ByteBuffer.allocate(1 + Long.BYTES).put(DONE).putLong(entry.notification().id()).array();
+        // a DONE record never needs to be kept for itself, only until the record it supersedes is deleted
+        release(append(body));
+        release(entry.segment());
+    }
+
+    private long append(byte[] body) {
+        try {
+            return segmentedLog.append(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void release(long segment) {
+        try {
+            segmentedLog.release(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        ticker.shutdownNow();
+        ticker.awaitTermination(5, TimeUnit.SECONDS);
+        synchronized (this) {
+            segmentedLog.close();
+        }
+    }
+
+    /**
+     * @param pending        notifications waiting for their due time
+     * @param due            notifications due, waiting in the release buffer
+     * @param releasePerTick current release rate of the buffer
+     */
+    public record ScheduleStats(int pending, int due, int releasePerTick, long released, long cancelled, int segments) {
+    }
+
+    private record Pending(ScheduledNotification notification, long segment) {
+    }
+}
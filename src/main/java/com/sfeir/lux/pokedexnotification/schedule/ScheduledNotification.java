@@ -0,0 +1,47 @@
+package com.sfeir.lux.pokedexnotification.schedule;
+
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import com.sfeir.lux.pokedexnotification.queue.SegmentedLog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A "wild Pokemon" notification waiting for its due time.
+ *
+ * @param provider null for a campaign to every platform through the dispatcher, otherwise the provider of the
+ *                 outbound queue the notification is handed to
+ * @param target   the topic of a campaign, or the queue target of the provider
+ * @param dueAt    epoch millis at which the notification is released
+ */
+public record ScheduledNotification(long id, NotificationProvider provider, String target, String pokemon, long dueAt, long createdAt) {
+
+    byte[] encode() {
+        var targetBytes = SegmentedLog.field("target", target);
+        var pokemonBytes = SegmentedLog.field("pokemon", pokemon);
+        return ByteBuffer.allocate(1 + Long.BYTES + 1 + 2 * Long.BYTES + 2 * Short.BYTES + targetBytes.length + pokemonBytes.length)
+                .put(NotificationScheduler.SCHEDULED)
+                .putLong(id)
+                .put(provider != null ? (byte) provider.ordinal() : -1)
+                .putLong(dueAt)
+                .putLong(createdAt)
+                .putShort((short) targetBytes.length)
+                .put(targetBytes)
+                .putShort((short) pokemonBytes.length)
+                .put(pokemonBytes)
+                .array();
+    }
+
+    // the record type and id have already been read
+    static ScheduledNotification decode(long id, ByteBuffer body) {
+        byte provider = body.get();
+        long dueAt = body.getLong();
+        long createdAt = body.getLong();
+        var target = new byte[body.getShort() & 0xFFFF];
+        body.get(target);
+        var pokemon = new byte[body.getShort() & 0xFFFF];
+        body.get(pokemon);
+        return new ScheduledNotification(id, provider >= 0 ? NotificationProvider.values()[provider] : null,
+                new String(target, StandardCharsets.UTF_8), new String(pokemon, StandardCharsets.UTF_8), dueAt, createdAt);
+    }
+}
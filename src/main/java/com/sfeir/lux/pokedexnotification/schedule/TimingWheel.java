@@ -0,0 +1,141 @@
+package com.sfeir.lux.pokedexnotification.schedule;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: a ring of buckets of {@code tickMs} each, a timeout lands in the bucket of its deadline tick
+ * modulo the wheel size and stays there for as many turns of the wheel as it needs.
+ * <p>
+ * Scheduling and cancelling are O(1), advancing visits each bucket passed at most once, and only looks at the
+ * timeouts of those buckets. Not thread safe.
+ */
+final class TimingWheel<T> {
+
+    static final class Timeout<T> {
+        private final T value;
+        private final long deadlineTick;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private Bucket<T> bucket;
+
+        private Timeout(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        T value() {
+            return value;
+        }
+    }
+
+    private static final class Bucket<T> {
+        private Timeout<T> head;
+
+        void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout<T> timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final long tickMs;
+    private final Bucket<T>[] buckets;
+    private final int mask;
+    // first tick not advanced over yet
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMs, int wheelSize, long startMillis) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        this.tickMs = tickMs;
+        int buckets = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new Bucket<>();
+        }
+        this.mask = buckets - 1;
+        this.currentTick = startMillis / tickMs;
+    }
+
+    /**
+     * @param deadlineMillis epoch millis, a deadline already passed expires on the next advance
+     */
+    Timeout<T> schedule(T value, long deadlineMillis) {
+        // rounded up, a timeout never expires before its deadline
+        long tick = Math.max(currentTick, Math.ceilDiv(deadlineMillis, tickMs));
+        var timeout = new Timeout<>(value, tick);
+        buckets[(int) (tick & mask)].add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @return false if the timeout already expired or was cancelled
+     */
+    boolean cancel(Timeout<T> timeout) {
+        if (timeout.bucket == null) {
+            return false;
+        }
+        timeout.bucket.remove(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Expires every timeout whose deadline is at or before {@code nowMillis}.
+     *
+     * @return number of expired timeouts
+     */
+    int advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = nowMillis / tickMs;
+        if (targetTick < currentTick) {
+            return 0;
+        }
+        // after a pause longer than a turn, one pass over the whole wheel is enough
+        long steps = Math.min(targetTick - currentTick + 1, buckets.length);
+        int count = 0;
+        for (long step = 0; step < steps; step++) {
+            var bucket = buckets[(int) ((currentTick + step) & mask)];
+            var timeout = bucket.head;
+            while (timeout != null) {
+                var next = timeout.next;
+                if (timeout.deadlineTick <= targetTick) {
+                    bucket.remove(timeout);
+                    size--;
+                    count++;
+                    expired.accept(timeout.value);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = targetTick + 1;
+        return count;
+    }
+
+    int size() {
+        return size;
+    }
+}
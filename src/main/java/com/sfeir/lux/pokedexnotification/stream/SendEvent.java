@@ -0,0 +1,15 @@
+package com.sfeir.lux.pokedexnotification.stream;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * One line of a streamed send: a {@link TargetResult} per provider call as it completes, then one {@link SendSummary}.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = TargetResult.class, name = "result"),
+        @JsonSubTypes.Type(value = SendSummary.class, name = "summary")
+})
+public sealed interface SendEvent permits TargetResult, SendSummary {
+}
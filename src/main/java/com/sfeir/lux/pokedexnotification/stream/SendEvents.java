@@ -0,0 +1,54 @@
+package com.sfeir.lux.pokedexnotification.stream;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class SendEvents {
+
+    private SendEvents() {
+    }
+
+    /**
+     * Passes every result through as soon as it is emitted and appends their summary, only the counters are kept.
+     */
+    public static Flux<SendEvent> withSummary(Flux<TargetResult> results) {
+        return Flux.defer(() -> {
+            var summary = new Summary(System.nanoTime());
+            return results.doOnNext(summary::add)
+                    .<SendEvent>map(result -> result)
+                    .concatWith(Mono.fromSupplier(summary::toEvent));
+        });
+    }
+
+    private static final class Summary {
+        private final long start;
+        private long results;
+        private long targets;
+        private long succeeded;
+        private long failed;
+        private final Map<String, Long> errors = new HashMap<>();
+
+        Summary(long start) {
+            this.start = start;
+        }
+
+        void add(TargetResult result) {
+            results++;
+            targets += result.targets();
+            if (result.succeeded()) {
+                succeeded++;
+            } else {
+                failed++;
+                errors.merge(result.error(), 1L, Long::sum);
+            }
+        }
+
+        SendSummary toEvent() {
+            return new SendSummary(results, targets, succeeded, failed, Map.copyOf(errors), Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.sfeir.lux.pokedexnotification.stream;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Last line of a streamed send.
+ *
+ * @param results   number of {@link TargetResult} streamed before
+ * @param targets   number of devices the results addressed
+ * @param succeeded number of successful results
+ * @param failed    number of failed results
+ * @param errors    number of failed results per error code
+ */
+public record SendSummary(long results, long targets, long succeeded, long failed, Map<String, Long> errors, Duration elapsed) implements SendEvent {
+}
@@ -0,0 +1,24 @@
+package com.sfeir.lux.pokedexnotification.stream;
+
+/**
+ * Outcome of a send to one target.
+ *
+ * @param target  device token, first token of a batch, or tag
+ * @param targets number of devices the call addressed, 0 when the provider fans out itself, as for a hub tag
+ * @param id      message or tracking id, null if the send failed
+ * @param error   provider error code, null if the send succeeded
+ */
+public record TargetResult(String target, int targets, String id, String error) implements SendEvent {
+
+    public static TargetResult sent(String target, int targets, String id) {
+        return new TargetResult(target, targets, id, null);
+    }
+
+    public static TargetResult failed(String target, int targets, String error) {
+        return new TargetResult(target, targets, null, error);
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+}
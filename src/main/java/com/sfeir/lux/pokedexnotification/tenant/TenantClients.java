@@ -0,0 +1,196 @@
+package com.sfeir.lux.pokedexnotification.tenant;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.sfeir.lux.pokedexnotification.apns.ApnsFanOutService;
+import com.sfeir.lux.pokedexnotification.apns.ApnsWebClientSender;
+import com.sfeir.lux.pokedexnotification.azure.AzureHubGateway;
+import com.sfeir.lux.pokedexnotification.dispatch.AzureAdapter;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The provider clients of one tenant, each built on its first use: its own Pushy client and connections, its own
+ * Firebase app and executor, its own hub gateway and bulkhead, all paced by the tenant's own governors.
+ * <p>
+ * Once evicted from the {@link TenantRegistry}, the clients are closed as soon as the calls in flight complete.
+ */
+public class TenantClients {
+
+    private static final Logger log = LoggerFactory.getLogger(TenantClients.class);
+
+    private final String id;
+    private final TenantSettings settings;
+    private final String firebaseAppName;
+    private final TransportGovernors governors;
+    private final ApnsFanOutService apnsFanOut;
+    private final AzureHubGateway azureGateway;
+    private final AzureAdapter azureAdapter;
+
+    // built on first use, guarded by this
+    private ApnsClient apnsClient;
+    private FirebaseApp firebaseApp;
+    private FirebaseMessaging firebaseMessaging;
+    private boolean closed;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean evicted = new AtomicBoolean();
+    private volatile long lastUsed = System.nanoTime();
+
+    /**
+     * @param generation distinguishes the Firebase app of a tenant built again after an eviction from the previous
+     *                   one, which may not be deleted yet
+     */
+    TenantClients(String id, long generation, TenantSettings settings, TransportGovernors governors,
+                  ApnsWebClientSender webClientSender, NotificationPayloads payloads,
+                  SendMetrics metrics, long hubBulkheadWaitMs, long hubTimeoutMs) {
+        this.id = id;
+        this.settings = settings;
+        this.firebaseAppName = "tenant-" + id + "-" + generation;
+        this.governors = governors;
+        // tenant sends only use the Pushy transport, the WebClient sender holds the default app's provider token;
+        // tenant devices are not in the registry, their rejections must not prune it
+        this.apnsFanOut = settings.apns() != null
+                ? new ApnsFanOutService(this::apnsClient, webClientSender, null, governors, metrics,
+                settings.apns().topic(), settings.apns().fanOutConcurrency())
+                : null;
+        this.azureGateway = settings.azure() != null
+                ? new AzureHubGateway(settings.azure().connectionString(), settings.azure().hubPath(), settings.azure().maxConcurrentCalls(),
+                hubBulkheadWaitMs, hubTimeoutMs, governors, metrics)
+                : null;
+        this.azureAdapter = azureGateway != null ? new AzureAdapter(azureGateway, payloads) : null;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public TransportGovernors governors() {
+        return governors;
+    }
+
+    public ApnsFanOutService apnsFanOut() {
+        return require(apnsFanOut, "APNs");
+    }
+
+    public AzureAdapter azure() {
+        return require(azureAdapter, "Notification Hub");
+    }
+
+    public synchronized FirebaseMessaging firebaseMessaging() {
+        require(settings.fcm(), "Firebase");
+        checkOpen();
+        if (firebaseMessaging == null) {
+            try (var credentials = new FileInputStream(settings.fcm().credentials())) {
+                firebaseApp = FirebaseApp.initializeApp(FirebaseOptions.builder()
+                        .setCredentials(GoogleCredentials.fromStream(credentials))
+                        .setProjectId(settings.fcm().projectId())
+                        // not the transport shared by the apps of the other tenants
+                        .setHttpTransport(new NetHttpTransport())
+                        .build(), firebaseAppName);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to load the Firebase credentials of tenant " + id, e);
+            }
+            firebaseMessaging = FirebaseMessaging.getInstance(firebaseApp);
+            log.info("Initialised Firebase app {}", firebaseAppName);
+        }
+        return firebaseMessaging;
+    }
+
+    synchronized ApnsClient apnsClient() {
+        checkOpen();
+        if (apnsClient == null) {
+            var apns = settings.apns();
+            try {
+                // no event loop group given, the client gets its own
+                apnsClient = new ApnsClientBuilder()
+                        .setApnsServer(apns.production() ? ApnsClientBuilder.PRODUCTION_APNS_HOST : ApnsClientBuilder.DEVELOPMENT_APNS_HOST)
+                        .setConcurrentConnections(apns.connections())
+                        .setSigningKey(ApnsSigningKey.loadFromPkcs8File(new File(apns.keyFile()), apns.teamId(), apns.keyId()))
+                        .build();
+            } catch (IOException | GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to build the APNs client of tenant " + id, e);
+            }
+            log.info("Initialised APNs client of tenant {}", id);
+        }
+        return apnsClient;
+    }
+
+    private <T> T require(T client, String provider) {
+        if (client == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Tenant " + id + " has no " + provider + " credentials");
+        }
+        return client;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Clients of tenant " + id + " are closed");
+        }
+    }
+
+    void acquire() {
+        inFlight.incrementAndGet();
+        lastUsed = System.nanoTime();
+    }
+
+    void release() {
+        lastUsed = System.nanoTime();
+        if (inFlight.decrementAndGet() == 0 && evicted.get()) {
+            close();
+        }
+    }
+
+    void evict() {
+        if (evicted.compareAndSet(false, true) && inFlight.get() == 0) {
+            close();
+        }
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (apnsClient != null) {
+            apnsClient.close();
+        }
+        if (firebaseApp != null) {
+            firebaseApp.delete();
+        }
+        if (azureGateway != null) {
+            azureGateway.destroy();
+        }
+        log.info("Closed the clients of tenant {}", id);
+    }
+}
@@ -0,0 +1,166 @@
+package com.sfeir.lux.pokedexnotification.tenant;
+
+import com.sfeir.lux.pokedexnotification.apns.ApnsWebClientSender;
+import com.sfeir.lux.pokedexnotification.governor.RateGovernor;
+import com.sfeir.lux.pokedexnotification.governor.TransportGovernors;
+import com.sfeir.lux.pokedexnotification.metrics.SendMetrics;
+import com.sfeir.lux.pokedexnotification.payload.NotificationPayloads;
+import com.sfeir.lux.pokedexnotification.queue.NotificationProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Routes a send to the clients of its tenant, configured under {@code tenants.apps.<id>}, see {@link TenantSettings}.
+ * <p>
+ * Clients are built on demand and cached in an LRU of at most {@code tenants.max-active} tenants, a tenant idle for
+ * {@code tenants.idle-timeout-ms} is evicted as well. An evicted tenant's clients are closed once its calls in flight
+ * complete, and built again on its next send.
+ */
+@Service
+public class TenantRegistry implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(TenantRegistry.class);
+
+    private final Environment environment;
+    private final Map<String, TenantSettings> tenants;
+    private final ApnsWebClientSender webClientSender;
+    private final NotificationPayloads payloads;
+    private final SendMetrics metrics;
+    private final int maxActive;
+    private final long idleTimeoutNanos;
+    private final long hubBulkheadWaitMs;
+    private final long hubTimeoutMs;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("tenant-eviction").daemon().factory());
+
+    // in access order, the eldest is the least recently used, guarded by this
+    private final LinkedHashMap<String, TenantClients> active = new LinkedHashMap<>(16, 0.75f, true);
+    private long generation;
+    private long built;
+    private long evicted;
+
+    public TenantRegistry(Environment environment, ApnsWebClientSender webClientSender, NotificationPayloads payloads, SendMetrics metrics,
+                          @Value("${tenants.max-active:16}") int maxActive,
+                          @Value("${tenants.idle-timeout-ms:1800000}") long idleTimeoutMs,
+                          @Value("${tenants.sweep-interval-ms:60000}") long sweepIntervalMs,
+                          @Value("${azure.hub.bulkhead-wait-ms:500}") long hubBulkheadWaitMs,
+                          @Value("${azure.hub.timeout-ms:10000}") long hubTimeoutMs) {
+        this.environment = environment;
+        this.tenants = Binder.get(environment).bind("tenants.apps", Bindable.mapOf(String.class, TenantSettings.class)).orElse(Map.of());
+        this.webClientSender = webClientSender;
+        this.payloads = payloads;
+        this.metrics = metrics;
+        this.maxActive = maxActive;
+        this.idleTimeoutNanos = Duration.ofMillis(idleTimeoutMs).toNanos();
+        this.hubBulkheadWaitMs = hubBulkheadWaitMs;
+        this.hubTimeoutMs = hubTimeoutMs;
+        sweeper.scheduleAtFixedRate(() -> {
+            // an exception would cancel every later sweep
+            try {
+                evictIdle();
+            } catch (RuntimeException e) {
+                log.error("Tenant eviction failed", e);
+            }
+        }, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("{} tenants configured: {}", tenants.size(), tenants.keySet());
+    }
+
+    /**
+     * Runs the call with the clients of the tenant, which are not closed before the call completes.
+     */
+    public <T> Mono<T> with(String tenant, Function<TenantClients, Mono<T>> call) {
+        return Mono.usingWhen(Mono.fromCallable(() -> acquire(tenant)), call, clients -> Mono.fromRunnable(clients::release));
+    }
+
+    public Set<String> tenants() {
+        return tenants.keySet();
+    }
+
+    public synchronized TenantRegistryStats stats() {
+        List<TenantStats> stats = new ArrayList<>(active.size());
+        long now = System.nanoTime();
+        active.values().forEach(clients -> stats.add(new TenantStats(clients.id(), clients.inFlight(),
+                Duration.ofNanos(now - clients.lastUsed()), clients.governors().stats())));
+        return new TenantRegistryStats(tenants.size(), maxActive, built, evicted, stats);
+    }
+
+    private synchronized TenantClients acquire(String tenant) {
+        var clients = active.get(tenant);
+        if (clients == null) {
+            var settings = tenants.get(tenant);
+            if (settings == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown tenant " + tenant);
+            }
+            clients = new TenantClients(tenant, generation++, settings, TransportGovernors.forTenant(environment, tenant),
+                    webClientSender, payloads, metrics, hubBulkheadWaitMs, hubTimeoutMs);
+            active.put(tenant, clients);
+            built++;
+            if (active.size() > maxActive) {
+                var eldest = active.entrySet().iterator().next();
+                log.info("Evicting least recently used tenant {}", eldest.getKey());
+                evict(eldest.getKey());
+            }
+        }
+        clients.acquire();
+        return clients;
+    }
+
+    private synchronized void evictIdle() {
+        long now = System.nanoTime();
+        List<String> idle = active.values().stream()
+                .filter(clients -> clients.inFlight() == 0 && now - clients.lastUsed() > idleTimeoutNanos)
+                .map(TenantClients::id)
+                .toList();
+        idle.forEach(tenant -> {
+            log.info("Evicting idle tenant {}", tenant);
+            evict(tenant);
+        });
+    }
+
+    // caller must hold this
+    private void evict(String tenant) {
+        var clients = active.remove(tenant);
+        if (clients != null) {
+            clients.evict();
+            evicted++;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        sweeper.shutdownNow();
+        synchronized (this) {
+            active.values().forEach(TenantClients::close);
+            active.clear();
+        }
+    }
+
+    /**
+     * @param configured tenants in the configuration
+     * @param built      tenant clients built since startup, again after each eviction
+     */
+    public record TenantRegistryStats(int configured, int maxActive, long built, long evicted, List<TenantStats> active) {
+    }
+
+    public record TenantStats(String tenant, int inFlight, Duration idle, Map<NotificationProvider, RateGovernor.GovernorStats> governors) {
+    }
+}
@@ -0,0 +1,34 @@
+package com.sfeir.lux.pokedexnotification.tenant;
+
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Credentials of one tenant, an app flavour or environment, bound from {@code tenants.apps.<id>}. A tenant without
+ * a section can't send through that provider. Its rate budgets are under {@code tenants.apps.<id>.governor}, see
+ * {@link com.sfeir.lux.pokedexnotification.governor.TransportGovernors#forTenant}.
+ */
+public record TenantSettings(Apns apns, Fcm fcm, Azure azure) {
+
+    /**
+     * @param keyFile     the {@code .p8} signing key
+     * @param connections HTTP/2 connections of the tenant's own APNs client
+     */
+    public record Apns(String teamId, String keyId, String keyFile, String topic,
+                       @DefaultValue("false") boolean production,
+                       @DefaultValue("2") int connections,
+                       @DefaultValue("500") int fanOutConcurrency) {
+    }
+
+    /**
+     * @param credentials the service account JSON file of the tenant's Firebase project
+     */
+    public record Fcm(String credentials, String projectId) {
+    }
+
+    /**
+     * @param maxConcurrentCalls bulkhead of the tenant's own hub gateway
+     */
+    public record Azure(String connectionString, String hubPath,
+                        @DefaultValue("8") int maxConcurrentCalls) {
+    }
+}
@@ -0,0 +1,63 @@
+package com.sfeir.lux.pokedexnotification.dedup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyStoreTest {
+
+	private final AtomicInteger sends = new AtomicInteger();
+
+	private Mono<Integer> send() {
+		return Mono.fromSupplier(sends::incrementAndGet);
+	}
+
+	@Test
+	void sendsIdenticalTriggersOnce() {
+		var store = new IdempotencyStore(60_000, 100, new SimpleMeterRegistry());
+		var key = IdempotencyStore.key("fcm/badge", null, "3");
+
+		assertEquals(1, store.execute(key, this::send).block());
+		assertEquals(1, store.execute(key, this::send).block());
+		assertEquals(2, store.execute(IdempotencyStore.key("fcm/badge", "retry-1", "3"), this::send).block());
+		assertEquals(2, sends.get());
+	}
+
+	@Test
+	void forgetsFailedSends() {
+		var store = new IdempotencyStore(60_000, 100, new SimpleMeterRegistry());
+
+		assertThrows(IllegalStateException.class, () -> store.execute("key", () -> Mono.error(new IllegalStateException())).block());
+		assertEquals(1, store.execute("key", this::send).block());
+	}
+
+	@Test
+	void staysBounded() {
+		var store = new IdempotencyStore(60_000, 10, new SimpleMeterRegistry());
+		for (int i = 0; i < 100; i++) {
+			store.execute("key-" + i, this::send).block();
+		}
+		assertEquals(10, store.size());
+	}
+
+	@Test
+	void coalescesToTheLatestValue() {
+		var sent = new AtomicInteger();
+		var coalescer = new Coalescer<Integer, Integer>(Duration.ofMillis(100), value -> Mono.fromSupplier(() -> {
+			sent.incrementAndGet();
+			return value;
+		}));
+
+		var first = coalescer.submit("pokemon", 1);
+		var second = coalescer.submit("pokemon", 2);
+
+		assertEquals(List.of(2, 2), Mono.zip(first, second).map(result -> List.of(result.getT1(), result.getT2())).block());
+		assertEquals(1, sent.get());
+	}
+}
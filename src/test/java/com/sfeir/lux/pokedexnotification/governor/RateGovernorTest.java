@@ -0,0 +1,53 @@
+package com.sfeir.lux.pokedexnotification.governor;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateGovernorTest {
+
+	@Test
+	void capsCallsInFlight() {
+		var governor = new RateGovernor("test", 1_000_000, 1, 1_000_000, 4);
+		var inFlight = new AtomicInteger();
+		var maxInFlight = new AtomicInteger();
+
+		long completed = Flux.range(0, 200)
+				.flatMap(i -> governor.throttle(() -> Mono.fromRunnable(() -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+						.then(Mono.delay(Duration.ofMillis(1)))
+						.doFinally(signal -> inFlight.decrementAndGet())), 50)
+				.count()
+				.block();
+
+		assertEquals(200, completed);
+		assertTrue(maxInFlight.get() <= 4);
+		assertEquals(4, governor.stats().availableSlots());
+	}
+
+	@Test
+	void releasesSlotsOfCancelledCalls() {
+		var governor = new RateGovernor("test", 1_000_000, 1, 1_000_000, 1);
+
+		governor.throttle(Mono::never).subscribe().dispose();
+		governor.throttle(Mono::never).subscribe().dispose();
+
+		assertEquals(1, governor.stats().availableSlots());
+		assertEquals(0, governor.stats().waiting());
+	}
+
+	@Test
+	void halvesRateWhenThrottled() {
+		var governor = new RateGovernor("test", 100, 10, 100, 1);
+
+		governor.onThrottled();
+		// a second 429 in the same second is about the same overload
+		governor.onThrottled();
+
+		assertEquals(50, governor.stats().rate());
+	}
+}
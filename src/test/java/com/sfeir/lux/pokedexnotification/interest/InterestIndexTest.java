@@ -0,0 +1,111 @@
+package com.sfeir.lux.pokedexnotification.interest;
+
+import com.sfeir.lux.pokedexnotification.registry.DevicePlatform;
+import com.sfeir.lux.pokedexnotification.registry.DeviceRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InterestIndexTest {
+
+	private static final Map<String, Set<Integer>> GROUPS = Map.of("legendary", Set.of(144, 145, 146, 150));
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void targetsSpeciesGenerationsAndGroups() throws Exception {
+		try (var registry = DeviceRegistry.open(directory.resolve("devices.log"));
+			 var index = InterestIndex.open(registry, directory.resolve("interests.log"), GROUPS, false)) {
+			register(registry, "pikachu-fan", "gen1-fan", "legendary-fan", "everything-fan", "undecided");
+			index.update(DevicePlatform.FCM, "pikachu-fan", Set.of("25"));
+			index.update(DevicePlatform.FCM, "gen1-fan", Set.of("gen1"));
+			index.update(DevicePlatform.FCM, "legendary-fan", Set.of("legendary"));
+			index.update(DevicePlatform.FCM, "everything-fan", Set.of(InterestIndex.ALL));
+
+			assertEquals(List.of("pikachu-fan", "gen1-fan", "everything-fan"), tokens(index, index.audience(DevicePlatform.FCM, "25")));
+			assertEquals(List.of("gen1-fan", "legendary-fan", "everything-fan"), tokens(index, index.audience(DevicePlatform.FCM, "150")));
+			assertEquals(List.of("everything-fan"), tokens(index, index.audience(DevicePlatform.FCM, "250")));
+			assertEquals(List.of("gen1-fan", "legendary-fan"), tokens(index, index.query(DevicePlatform.FCM, "gen1|legendary")));
+			assertEquals(List.of(), tokens(index, index.query(DevicePlatform.FCM, "gen1&legendary")));
+			assertThrows(IllegalArgumentException.class, () -> index.update(DevicePlatform.FCM, "undecided", Set.of("gen10")));
+		}
+	}
+
+	@Test
+	void undecidedDevicesGetEveryPokemonByDefault() throws Exception {
+		try (var registry = DeviceRegistry.open(directory.resolve("devices.log"));
+			 var index = InterestIndex.open(registry, directory.resolve("interests.log"), GROUPS, true)) {
+			register(registry, "pikachu-fan", "undecided");
+			index.update(DevicePlatform.FCM, "pikachu-fan", Set.of("25"));
+
+			assertEquals(List.of("undecided"), tokens(index, index.audience(DevicePlatform.FCM, "1")));
+			assertEquals(List.of("pikachu-fan", "undecided"), tokens(index, index.audience(DevicePlatform.FCM, "25")));
+			registry.unregister(DevicePlatform.FCM, "undecided");
+			assertEquals(List.of("pikachu-fan"), tokens(index, index.audience(DevicePlatform.FCM, "25")));
+		}
+	}
+
+	@Test
+	void reloadsFromLog() throws Exception {
+		var devices = directory.resolve("devices.log");
+		var interests = directory.resolve("interests.log");
+		try (var registry = DeviceRegistry.open(devices);
+			 var index = InterestIndex.open(registry, interests, GROUPS, false)) {
+			register(registry, "pikachu-fan", "gen1-fan");
+			index.update(DevicePlatform.FCM, "pikachu-fan", Set.of("25", "26"));
+			index.update(DevicePlatform.FCM, "gen1-fan", Set.of("gen1"));
+			for (int i = 0; i < 10; i++) {
+				index.update(DevicePlatform.FCM, "gen1-fan", Set.of("gen1", String.valueOf(i + 1)));
+			}
+			index.update(DevicePlatform.FCM, "gen1-fan", Set.of("gen2"));
+		}
+		try (var registry = DeviceRegistry.open(devices);
+			 var index = InterestIndex.open(registry, interests, GROUPS, false)) {
+			assertEquals(Set.of("25", "26"), index.interests(DevicePlatform.FCM, "pikachu-fan"));
+			assertEquals(Set.of("gen2"), index.interests(DevicePlatform.FCM, "gen1-fan"));
+		}
+		try (var registry = DeviceRegistry.open(devices);
+			 var index = InterestIndex.open(registry, interests, GROUPS, false)) {
+			assertEquals(List.of("gen1-fan"), tokens(index, index.audience(DevicePlatform.FCM, "152")));
+		}
+	}
+
+	@Test
+	void forgetsTheInterestsOfUnregisteredDevices() throws Exception {
+		var devices = directory.resolve("devices.log");
+		var interests = directory.resolve("interests.log");
+		try (var registry = DeviceRegistry.open(devices);
+			 var index = InterestIndex.open(registry, interests, GROUPS, false)) {
+			register(registry, "pikachu-fan");
+			index.update(DevicePlatform.FCM, "pikachu-fan", Set.of("25"));
+			registry.unregister(DevicePlatform.FCM, "pikachu-fan");
+			register(registry, "pikachu-fan");
+
+			assertEquals(Set.of(), index.interests(DevicePlatform.FCM, "pikachu-fan"));
+			assertEquals(List.of(), tokens(index, index.audience(DevicePlatform.FCM, "25")));
+		}
+		try (var registry = DeviceRegistry.open(devices);
+			 var index = InterestIndex.open(registry, interests, GROUPS, false)) {
+			assertEquals(Set.of(), index.interests(DevicePlatform.FCM, "pikachu-fan"));
+		}
+	}
+
+	private static void register(DeviceRegistry registry, String... tokens) {
+		for (String token : tokens) {
+			registry.register(DevicePlatform.FCM, token, Set.of("pokemon"));
+		}
+	}
+
+	private static List<String> tokens(InterestIndex index, org.roaringbitmap.RoaringBitmap audience) {
+		try (var tokens = index.tokens(DevicePlatform.FCM, audience)) {
+			return tokens.toList();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.sfeir.lux.pokedexnotification.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SendMetricsTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final SendMetrics metrics = new SendMetrics(registry);
+
+	@Test
+	void countsOutcomesByReason() {
+		metrics.record(SendMetrics.APNS, "pushy", () -> Mono.just("BadDeviceToken"), SendMetrics.Outcome::rejected).block();
+		metrics.record(SendMetrics.APNS, "pushy", () -> Mono.just("ok"), result -> SendMetrics.Outcome.success()).block();
+		metrics.recordBatch(SendMetrics.FCM, "send-each-for-multicast", () -> Mono.just(3),
+				result -> Map.of(SendMetrics.Outcome.success(), 2L, SendMetrics.Outcome.rejected("UNREGISTERED"), 1L)).block();
+
+		assertEquals(1, registry.get("notification.outcome").tags("provider", "apns", "reason", "BadDeviceToken").counter().count());
+		assertEquals(2, registry.get("notification.send").tags("provider", "apns").timers().stream().mapToLong(timer -> timer.count()).sum());
+		assertEquals(1, registry.get("notification.outcome").tags("provider", "fcm", "reason", "UNREGISTERED").counter().count());
+		assertEquals(0, registry.get("notification.in.flight").tags("provider", "apns").gauge().value());
+	}
+
+	@Test
+	void countsEmptyCompletionsAsSuccesses() {
+		metrics.record(SendMetrics.AZURE, "send-notification", Mono::empty, result -> SendMetrics.Outcome.rejected("unexpected")).block();
+		metrics.record(SendMetrics.AZURE, "send-notification", Mono::empty, result -> SendMetrics.Outcome.rejected("unexpected")).block();
+
+		assertEquals(2, registry.get("notification.send").tags("provider", "azure", "outcome", "success").timer().count());
+		assertEquals(2, registry.get("notification.outcome").tags("provider", "azure", "outcome", "success").counter().count());
+	}
+
+	@Test
+	void recordsBlockingErrors() {
+		assertThrows(IOException.class, () -> metrics.recordBlocking(SendMetrics.FCM, "send", () -> {
+			throw new IOException("unreachable");
+		}));
+
+		assertEquals(1, registry.get("notification.send").tags("provider", "fcm", "outcome", "error").timer().count());
+		assertEquals(1, registry.get("notification.outcome").tags("reason", "IOException").counter().count());
+	}
+}
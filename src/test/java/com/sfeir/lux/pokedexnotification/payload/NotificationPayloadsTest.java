@@ -0,0 +1,38 @@
+package com.sfeir.lux.pokedexnotification.payload;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationPayloadsTest {
+
+	private final NotificationPayloads payloads = new NotificationPayloads();
+
+	@Test
+	void rendersKnownPokemonOnce() {
+		var first = payloads.render(PayloadPlatform.AZURE_FCM, "25");
+		assertSame(first, payloads.render(PayloadPlatform.AZURE_FCM, "25"));
+		assertEquals("{\"message\":{\"notification\":{\"title\":\"A wild Pokemon Appear !\",\"body\":\"Click to see who it is\"},\"data\":{\"pokemon\":\"25\"}}}", first.json());
+	}
+
+	@Test
+	void rendersKnownPokemonAsAString() {
+		assertTrue(payloads.render(PayloadPlatform.APNS, "25").json().contains("\"pokemon\":\"25\""));
+		assertTrue(payloads.render(PayloadPlatform.PUSHY, "25").json().contains("\"pokemon\":\"25\""));
+	}
+
+	@Test
+	void rendersUnknownPokemonEveryTime() {
+		var payload = payloads.render(PayloadPlatform.APNS, "missingno");
+		assertNotSame(payload, payloads.render(PayloadPlatform.APNS, "missingno"));
+		assertTrue(payload.json().contains("\"pokemon\":\"missingno\""));
+	}
+
+	@Test
+	void randomPokemonIsAKnownId() {
+		for (int i = 0; i < 10_000; i++) {
+			int id = Integer.parseInt(NotificationPayloads.randomPokemon());
+			assertTrue(id >= 1 && id <= NotificationPayloads.POKEMON_COUNT);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+	@TempDir
+	Path directory;
+
+	private final BlockingQueue<QueuedNotification> sent = new LinkedBlockingQueue<>();
+
+	@Test
+	void resumesPendingNotificationsAfterRestart() throws Exception {
+		var queue = open(notification -> SendResult.delivered());
+		queue.enqueue(NotificationProvider.FCM, "pokemon", "25");
+		queue.enqueue(NotificationProvider.FCM, "legendary", "150");
+		queue.destroy();
+
+		queue = open(notification -> SendResult.delivered());
+		assertEquals(2, queue.stats().pending().get(NotificationProvider.FCM));
+		queue.startWorkers();
+		Map<String, String> pokemonByTarget = new HashMap<>();
+		for (int i = 0; i < 2; i++) {
+			var notification = sent.poll(5, TimeUnit.SECONDS);
+			pokemonByTarget.put(notification.target(), notification.pokemon());
+		}
+		assertEquals(Map.of("pokemon", "25", "legendary", "150"), pokemonByTarget);
+		awaitDone(queue, 2);
+		queue.destroy();
+
+		queue = open(notification -> SendResult.delivered());
+		assertEquals(0, queue.stats().pending().get(NotificationProvider.FCM));
+		assertEquals(1, queue.stats().segments());
+		queue.destroy();
+	}
+
+	@Test
+	void deadLettersAfterTheLastAttempt() throws Exception {
+		var queue = open(notification -> SendResult.retry(null, "unavailable"));
+		queue.startWorkers();
+		queue.enqueue(NotificationProvider.FCM, "pokemon", "25");
+		for (int attempt = 0; attempt < 3; attempt++) {
+			assertEquals(attempt, sent.poll(5, TimeUnit.SECONDS).attempts());
+		}
+		awaitDone(queue, 1);
+		assertEquals(2, queue.stats().retried());
+		assertEquals(1, queue.stats().deadLettered());
+		assertTrue(Files.readString(directory.resolve("dead-letters.ndjson")).contains("unavailable"));
+		queue.destroy();
+
+		queue = open(notification -> SendResult.delivered());
+		assertEquals(0, queue.stats().pending().get(NotificationProvider.FCM));
+		queue.destroy();
+	}
+
+	@Test
+	void neverReusesIdsOnceTheLogIsEmpty() throws Exception {
+		var queue = open(notification -> SendResult.delivered());
+		queue.startWorkers();
+		long first = queue.enqueue(NotificationProvider.FCM, "pokemon", "25").id();
+		awaitDone(queue, 1);
+		queue.destroy();
+		// as left once every segment was released and deleted
+		try (Stream<Path> segments = Files.list(directory.resolve("segments"))) {
+			for (Path segment : segments.toList()) {
+				Files.delete(segment);
+			}
+		}
+
+		queue = open(notification -> SendResult.delivered());
+		assertTrue(queue.enqueue(NotificationProvider.FCM, "pokemon", "25").id() > first);
+		queue.destroy();
+	}
+
+	// one worker and a backoff of a few milliseconds, short enough to wait for the retries
+	private OutboundQueue open(Function<QueuedNotification, SendResult> result) throws Exception {
+		QueueSender sender = new QueueSender() {
+			@Override
+			public NotificationProvider provider() {
+				return NotificationProvider.FCM;
+			}
+
+			@Override
+			public SendResult send(QueuedNotification notification) {
+				sent.add(notification);
+				return result.apply(notification);
+			}
+		};
+		return new OutboundQueue(List.of(sender), directory, 256, false, 3, 1, 10, 1);
+	}
+
+	private static void awaitDone(OutboundQueue queue, long notifications) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (queue.stats().delivered() + queue.stats().deadLettered() < notifications) {
+			assertTrue(System.nanoTime() < deadline, "notifications not completed in time");
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.sfeir.lux.pokedexnotification.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedLogTest {
+
+	// room for three records of 20 bytes per segment
+	private static final int SEGMENT_SIZE = 3 * (8 + 20);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void replaysRecordsAcrossSegments() throws Exception {
+		List<Long> segments = new ArrayList<>();
+		try (var log = SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> fail("empty log"))) {
+			for (int i = 0; i < 10; i++) {
+				segments.add(log.append(record(i)));
+			}
+			assertEquals(4, log.segmentCount());
+		}
+
+		List<String> replayed = new ArrayList<>();
+		List<Long> replayedSegments = new ArrayList<>();
+		try (var log = SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> {
+			replayed.add(StandardCharsets.UTF_8.decode(body).toString());
+			replayedSegments.add(segment);
+		})) {
+			log.append(record(10));
+		}
+		assertEquals(10, replayed.size());
+		assertEquals(new String(record(0), StandardCharsets.UTF_8), replayed.get(0));
+		assertEquals(new String(record(9), StandardCharsets.UTF_8), replayed.get(9));
+		assertEquals(segments, replayedSegments);
+		assertEquals(11, replay().size());
+	}
+
+	@Test
+	void stopsAtATornWrite() throws Exception {
+		try (var log = SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> {
+		})) {
+			log.append(record(0));
+			log.append(record(1));
+		}
+		// a body written without its length, as left by a crash before the length
+		try (var channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(record(2)), 2 * (8 + 20) + 8);
+		}
+		assertEquals(2, replay().size());
+
+		// an append after the restart is not mistaken for the torn record, nor hidden by it
+		try (var log = SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> {
+		})) {
+			log.append(record(3));
+		}
+		assertEquals(List.of(new String(record(0), StandardCharsets.UTF_8), new String(record(1), StandardCharsets.UTF_8),
+				new String(record(3), StandardCharsets.UTF_8)), replay());
+	}
+
+	@Test
+	void stopsAtAChecksumMismatch() throws Exception {
+		try (var log = SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> {
+		})) {
+			log.append(record(0));
+			log.append(record(1));
+		}
+		try (var channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[]{'x'}), (8 + 20) + 8);
+		}
+		assertEquals(1, replay().size());
+	}
+
+	@Test
+	void deletesReleasedSegmentsOldestFirst() throws Exception {
+		try (var log = SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> {
+		})) {
+			List<Long> segments = new ArrayList<>();
+			for (int i = 0; i < 9; i++) {
+				segments.add(log.append(record(i)));
+			}
+			assertEquals(3, segmentFiles());
+
+			// the second segment is released first but must outlive the first one
+			for (int i = 3; i < 6; i++) {
+				log.release(segments.get(i));
+			}
+			assertEquals(3, segmentFiles());
+
+			for (int i = 0; i < 2; i++) {
+				log.release(segments.get(i));
+			}
+			assertEquals(3, segmentFiles());
+
+			log.release(segments.get(2));
+			assertEquals(1, segmentFiles());
+			assertEquals(1, log.segmentCount());
+
+			// the active segment is kept even once released
+			for (int i = 6; i < 9; i++) {
+				log.release(segments.get(i));
+			}
+			assertEquals(1, segmentFiles());
+		}
+		assertEquals(3, replay().size());
+	}
+
+	@Test
+	void rejectsFieldsLongerThanTheirLength() {
+		assertArrayEquals(new byte[]{'a'}, SegmentedLog.field("target", "a"));
+		assertTrue(SegmentedLog.fits("a".repeat(SegmentedLog.MAX_FIELD_BYTES)));
+		assertFalse(SegmentedLog.fits("a".repeat(SegmentedLog.MAX_FIELD_BYTES + 1)));
+		assertThrows(IllegalArgumentException.class, () -> SegmentedLog.field("target", "é".repeat(SegmentedLog.MAX_FIELD_BYTES / 2 + 1)));
+	}
+
+	private List<String> replay() throws IOException {
+		List<String> replayed = new ArrayList<>();
+		SegmentedLog.open(directory, SEGMENT_SIZE, false, (segment, body) -> replayed.add(StandardCharsets.UTF_8.decode(body).toString())).close();
+		return replayed;
+	}
+
+	private Path onlySegment() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.reduce((first, second) -> {
+				throw new IllegalStateException("More than one segment");
+			}).orElseThrow();
+		}
+	}
+
+	private long segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+
+	private static byte[] record(int i) {
+		return String.format("record-%013d", i).getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,111 @@
+package com.sfeir.lux.pokedexnotification.registry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceRegistryTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void filtersByPlatformAndTopic() throws Exception {
+		try (var registry = DeviceRegistry.open(directory.resolve("devices.log"))) {
+			registry.register(DevicePlatform.FCM, "fcm-1", Set.of("pokemon"));
+			registry.register(DevicePlatform.FCM, "fcm-2", Set.of("legendary"));
+			registry.register(DevicePlatform.APNS, "apns-1", Set.of("pokemon", "legendary"));
+
+			assertEquals(List.of("fcm-1", "fcm-2"), registry.tokens(DevicePlatform.FCM, null));
+			assertEquals(List.of("fcm-1"), registry.tokens(DevicePlatform.FCM, "pokemon"));
+			assertEquals(List.of(), registry.tokens(DevicePlatform.AZURE, "pokemon"));
+			assertEquals(List.of(), registry.tokens(DevicePlatform.FCM, "unknown"));
+			assertEquals(Set.of("pokemon", "legendary"), registry.topics(DevicePlatform.APNS, "apns-1"));
+		}
+	}
+
+	@Test
+	void reloadsFromLog() throws Exception {
+		var log = directory.resolve("devices.log");
+		try (var registry = DeviceRegistry.open(log)) {
+			for (int i = 0; i < 10_000; i++) {
+				registry.register(DevicePlatform.FCM, "token-" + i, Set.of("pokemon"));
+			}
+			for (int i = 0; i < 10_000; i += 2) {
+				registry.unregister(DevicePlatform.FCM, "token-" + i);
+			}
+		}
+		try (var registry = DeviceRegistry.open(log)) {
+			assertEquals(5_000, registry.count(DevicePlatform.FCM));
+			assertFalse(registry.contains(DevicePlatform.FCM, "token-0"));
+			assertTrue(registry.contains(DevicePlatform.FCM, "token-1"));
+			assertEquals(5_000, registry.stream(DevicePlatform.FCM, "pokemon").count());
+		}
+	}
+
+	@Test
+	void dropsIncompleteLastRecord() throws Exception {
+		var log = directory.resolve("devices.log");
+		try (var registry = DeviceRegistry.open(log)) {
+			registry.register(DevicePlatform.APNS, "apns-1", Set.of());
+		}
+		long size = Files.size(log);
+		Files.write(log, new byte[]{1, 0, 0, 42, 'a'}, StandardOpenOption.APPEND);
+
+		try (var registry = DeviceRegistry.open(log)) {
+			assertEquals(List.of("apns-1"), registry.tokens(DevicePlatform.APNS, null));
+		}
+		assertEquals(size, Files.size(log));
+	}
+
+	@Test
+	void compactsWhileRunning() throws Exception {
+		var log = directory.resolve("devices.log");
+		try (var registry = DeviceRegistry.open(log)) {
+			for (int i = 0; i < 2_000; i++) {
+				registry.register(DevicePlatform.FCM, "token-" + i, Set.of("pokemon"));
+			}
+			long size = Files.size(log);
+			for (int i = 0; i < 1_500; i++) {
+				registry.unregister(DevicePlatform.FCM, "token-" + i);
+			}
+			// compacted in the background
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (Files.size(log) >= size) {
+				assertTrue(System.nanoTime() < deadline, "log not compacted in time");
+				Thread.sleep(10);
+			}
+			registry.register(DevicePlatform.FCM, "token-0", Set.of("pokemon"));
+		}
+		try (var registry = DeviceRegistry.open(log)) {
+			assertEquals(501, registry.count(DevicePlatform.FCM));
+			assertTrue(registry.contains(DevicePlatform.FCM, "token-0"));
+			assertFalse(registry.contains(DevicePlatform.FCM, "token-1"));
+		}
+	}
+
+	@Test
+	void reusesTopicsNoDeviceHas() throws Exception {
+		try (var registry = DeviceRegistry.open(directory.resolve("devices.log"))) {
+			for (int i = 0; i < DeviceRegistry.MAX_TOPICS; i++) {
+				registry.register(DevicePlatform.FCM, "token-" + i, Set.of("topic-" + i));
+			}
+			assertThrows(IllegalArgumentException.class, () -> registry.register(DevicePlatform.FCM, "token-new", Set.of("new")));
+
+			registry.unregister(DevicePlatform.FCM, "token-0");
+			registry.register(DevicePlatform.FCM, "token-new", Set.of("new"));
+
+			assertEquals(List.of("token-new"), registry.tokens(DevicePlatform.FCM, "new"));
+			assertEquals(List.of(), registry.tokens(DevicePlatform.FCM, "topic-0"));
+			assertEquals(List.of("token-1"), registry.tokens(DevicePlatform.FCM, "topic-1"));
+		}
+	}
+}
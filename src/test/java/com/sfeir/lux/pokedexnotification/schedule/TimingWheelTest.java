@@ -0,0 +1,57 @@
+package com.sfeir.lux.pokedexnotification.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+	@Test
+	void expiresOnDeadlineAcrossTurns() {
+		var wheel = new TimingWheel<String>(100, 8, 0);
+		wheel.schedule("first-turn", 250);
+		// same bucket, a turn later
+		wheel.schedule("second-turn", 250 + 8 * 100);
+		List<String> expired = new ArrayList<>();
+
+		assertEquals(0, wheel.advance(200, expired::add));
+		assertEquals(1, wheel.advance(300, expired::add));
+		assertEquals(List.of("first-turn"), expired);
+		assertEquals(1, wheel.advance(1100, expired::add));
+		assertEquals(List.of("first-turn", "second-turn"), expired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void cancelledTimeoutNeverExpires() {
+		var wheel = new TimingWheel<String>(100, 8, 0);
+		var timeout = wheel.schedule("cancelled", 500);
+		wheel.schedule("kept", 500);
+
+		assertTrue(wheel.cancel(timeout));
+		assertFalse(wheel.cancel(timeout));
+		List<String> expired = new ArrayList<>();
+		wheel.advance(500, expired::add);
+		assertEquals(List.of("kept"), expired);
+	}
+
+	@Test
+	void catchesUpAfterLongPause() {
+		var wheel = new TimingWheel<Integer>(10, 16, 0);
+		for (int i = 0; i < 1_000; i++) {
+			wheel.schedule(i, i * 37L);
+		}
+		wheel.schedule(-1, 0);
+
+		assertEquals(1_001, wheel.advance(1_000_000, value -> {
+		}));
+		assertEquals(0, wheel.size());
+		// a deadline already passed expires on the next advance
+		wheel.schedule(-2, 10);
+		assertEquals(1, wheel.advance(1_000_010, value -> {
+		}));
+	}
+}
@@ -0,0 +1,37 @@
+package com.sfeir.lux.pokedexnotification.stream;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SendEventsTest {
+
+	@Test
+	void appendsSummaryAfterResults() {
+		var events = SendEvents.withSummary(Flux.just(
+				TargetResult.sent("token-1", 1, "id-1"),
+				TargetResult.failed("token-2", 1, "UNREGISTERED"),
+				TargetResult.sent("token-3", 1000, "tracking-id"),
+				TargetResult.failed("pokemon", 0, "UNREGISTERED"))).collectList().block();
+
+		assertEquals(5, events.size());
+		assertEquals(TargetResult.sent("token-1", 1, "id-1"), events.get(0));
+		var summary = assertInstanceOf(SendSummary.class, events.get(4));
+		assertEquals(4, summary.results());
+		assertEquals(1002, summary.targets());
+		assertEquals(2, summary.succeeded());
+		assertEquals(2, summary.failed());
+		assertEquals(Map.of("UNREGISTERED", 2L), summary.errors());
+	}
+
+	@Test
+	void summarizesEachSubscription() {
+		var events = SendEvents.withSummary(Flux.just(TargetResult.sent("token-1", 1, "id-1")));
+
+		assertEquals(1, assertInstanceOf(SendSummary.class, events.blockLast()).results());
+		assertEquals(1, assertInstanceOf(SendSummary.class, events.blockLast()).results());
+	}
+}
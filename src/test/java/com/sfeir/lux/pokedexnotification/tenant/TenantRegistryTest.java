@@ -0,0 +1,67 @@
+package com.sfeir.lux.pokedexnotification.tenant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantRegistryTest {
+
+	private TenantRegistry registry;
+
+	@AfterEach
+	void tearDown() throws Exception {
+		registry.destroy();
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedTenantOnceItsCallsComplete() {
+		registry = registry(2, "red", "blue", "yellow");
+		var red = clients("red");
+		Sinks.One<String> pending = Sinks.one();
+		AtomicReference<TenantClients> blue = new AtomicReference<>();
+		registry.with("blue", clients -> {
+			blue.set(clients);
+			return pending.asMono();
+		}).subscribe();
+		// red is used again, blue becomes the least recently used
+		assertSame(red, clients("red"));
+
+		clients("yellow");
+		var stats = registry.stats();
+		assertEquals(2, stats.active().size());
+		assertEquals(3, stats.built());
+		assertEquals(1, stats.evicted());
+		assertFalse(red.isClosed());
+		// evicted while its call is in flight
+		assertFalse(blue.get().isClosed());
+
+		pending.tryEmitValue("sent");
+		assertTrue(blue.get().isClosed());
+		assertNotSame(blue.get(), clients("blue"));
+	}
+
+	@Test
+	void rejectsUnknownTenants() {
+		registry = registry(2, "red");
+		assertThrows(ResponseStatusException.class, () -> clients("green"));
+	}
+
+	private TenantClients clients(String tenant) {
+		return registry.with(tenant, Mono::just).block();
+	}
+
+	private static TenantRegistry registry(int maxActive, String... tenants) {
+		var environment = new MockEnvironment();
+		for (String tenant : tenants) {
+			environment.setProperty("tenants.apps." + tenant + ".fcm.credentials", tenant + "-adminsdk.json");
+		}
+		return new TenantRegistry(environment, null, null, null, maxActive, 3_600_000, 3_600_000, 500, 10_000);
+	}
+}